@@ -0,0 +1,104 @@
+package com.ostrowski;
+
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * A small pool of off-screen images for the DieShell to paint its frames into, each with its own long-lived GC.
+ * <p>
+ * Frames are handed off in two steps: acquire() returns a buffer to paint the next frame into, which is never the
+ * buffer currently being shown, and present() then makes that buffer the one shown. Buffers are kept from frame to
+ * frame, and are only replaced when the canvas grows past them. They are allocated with some headroom, so a die
+ * that drifts a few pixels doesn't cause a new image every frame.
+ * <p>
+ * The pool is only ever used from the SWT UI thread.
+ */
+class BackBufferPool
+{
+   static final int BUFFER_COUNT = 2;
+   /* Buffer sizes are rounded up to a multiple of this */
+   static final int SIZE_STEP    = 64;
+
+   static class BackBuffer
+   {
+      Image image  = null;
+      GC    gc     = null;
+      int   width  = 0;
+      int   height = 0;
+
+      private void dispose() {
+         if ((gc != null) && !gc.isDisposed()) {
+            gc.dispose();
+         }
+         if ((image != null) && !image.isDisposed()) {
+            image.dispose();
+         }
+         gc = null;
+         image = null;
+         width = 0;
+         height = 0;
+      }
+   }
+
+   private final BackBuffer[] buffers   = new BackBuffer[BUFFER_COUNT];
+   private       BackBuffer   presented = null;
+
+   BackBufferPool() {
+      for (int i = 0; i < BUFFER_COUNT; i++) {
+         buffers[i] = new BackBuffer();
+      }
+   }
+
+   /**
+    * Returns a buffer, at least as large as the given size, that isn't the buffer being shown.
+    */
+   BackBuffer acquire(Display display, int width, int height) {
+      BackBuffer buffer = null;
+      for (BackBuffer candidate : buffers) {
+         if (candidate != presented) {
+            buffer = candidate;
+            break;
+         }
+      }
+      if ((buffer.image == null) || buffer.image.isDisposed() || (buffer.width < width) || (buffer.height < height)) {
+         // Grow to the larger of the old and new sizes, rounded up, so the image doesn't need to be replaced again soon
+         int newWidth = roundUp(Math.max(width, buffer.width));
+         int newHeight = roundUp(Math.max(height, buffer.height));
+         buffer.dispose();
+         buffer.image = new Image(display, newWidth, newHeight);
+         buffer.gc = new GC(buffer.image);
+         buffer.width = newWidth;
+         buffer.height = newHeight;
+      }
+      return buffer;
+   }
+
+   private static int roundUp(int size) {
+      return ((Math.max(size, 1) + SIZE_STEP - 1) / SIZE_STEP) * SIZE_STEP;
+   }
+
+   /**
+    * Makes the given buffer (which was returned by acquire) the one that is shown.
+    */
+   void present(BackBuffer buffer) {
+      presented = buffer;
+   }
+
+   /**
+    * @return the image of the buffer being shown, or null if nothing has been presented yet.
+    */
+   Image getPresentedImage() {
+      if ((presented == null) || (presented.image == null) || presented.image.isDisposed()) {
+         return null;
+      }
+      return presented.image;
+   }
+
+   void dispose() {
+      for (BackBuffer buffer : buffers) {
+         buffer.dispose();
+      }
+      presented = null;
+   }
+}
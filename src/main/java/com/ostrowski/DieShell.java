@@ -1,19 +1,13 @@
 package com.ostrowski;
 
 
-import java.awt.image.BufferedImage;
-import java.io.IOException;
-import java.security.InvalidParameterException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import com.ostrowski.graphics.model.Tuple3;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.PaintEvent;
 import org.eclipse.swt.events.PaintListener;
-import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
@@ -23,37 +17,25 @@ import org.eclipse.swt.widgets.Canvas;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 
+import com.ostrowski.BackBufferPool.BackBuffer;
 import com.ostrowski.dieroller.Die;
+import com.ostrowski.dieroller.DieLibrary;
+import com.ostrowski.dieroller.DieSpec;
+import com.ostrowski.graphics.QualityGovernor;
+import com.ostrowski.graphics.SwtWorldPainter;
 import com.ostrowski.graphics.World3D;
-import com.ostrowski.graphics.model.ObjData;
-import com.ostrowski.graphics.model.ObjLoader;
 
 public class DieShell extends Thread implements PaintListener
 {
    public Region region;
    public Shell  shell;
    public Canvas doubleBufferCanvas;
-   GC    imageGC = null;
-   Image image   = null;
-   private final World3D world;
-
-   static final Map<Integer, ObjData> DIE_MAP  = new HashMap<>();
-   static BufferedImage               TEXTURE  = null;
-
-   static {
-      try {
-         DIE_MAP.put( 4, ObjLoader.loadObj("d4.obj"));
-         DIE_MAP.put( 6, ObjLoader.loadObj("d6.obj"));
-         DIE_MAP.put( 8, ObjLoader.loadObj("d8.obj"));
-         DIE_MAP.put(10, ObjLoader.loadObj("d10.obj"));
-         DIE_MAP.put(12, ObjLoader.loadObj("d12.obj"));
-         DIE_MAP.put(99, ObjLoader.loadObj("d99.obj"));
-         DIE_MAP.put(20, ObjLoader.loadObj("d20.obj"));
-         TEXTURE = ObjLoader.loadImage("diceMapLettersOnBlack.png");
-      } catch (IOException e) {
-         e.printStackTrace();
-      }
-   }
+   private final BackBufferPool backBuffers = new BackBufferPool();
+   private final World3D        world;
+   private final SwtWorldPainter painter;
+   private final QualityGovernor governor;
+   /* The time each frame's update and paint should fit in, so the dice animate at 60 frames per second */
+   private static final float   TARGET_FRAME_MILLIS = 16f;
 
 
    public DieShell(Display display, String arg, float scale, Integer baseRgb)
@@ -70,37 +52,19 @@ public class DieShell extends Thread implements PaintListener
       doubleBufferCanvas = new Canvas(shell, SWT.NO_BACKGROUND);
       doubleBufferCanvas.addPaintListener(this);
 
-      if (!arg.startsWith("d")) {
-         throw new InvalidParameterException();
-      }
-      String sideStr = arg.substring(1);
-      Integer results = null;
-      int equalLoc = arg.indexOf("=");
-      if (equalLoc != -1) {
-         sideStr = arg.substring(1, equalLoc);
-         String resultsStr = arg.substring(equalLoc + 1);
-         if (resultsStr.equals("+")) {
-            resultsStr = "12";
-         }
-         if (resultsStr.equals("-")) {
-            resultsStr = "11";
-         }
-         results = Integer.parseInt(resultsStr);
-      }
-      int sides = Integer.parseInt(sideStr);
-      if (results == null) {
-         results = (int)(Math.floor(Math.random() * sides));
-      }
-      world = new World3D(TEXTURE);
-      //_world.add(new Die(sides, DIE_MAP.get(sides).clone(), scale, results, baseRgb, null));
+      DieSpec spec = DieSpec.parse(arg);
+      world = new World3D(DieLibrary.getTexture());
+      painter = new SwtWorldPainter(world);
+      governor = new QualityGovernor(world, TARGET_FRAME_MILLIS);
+      //_world.add(new Die(spec.getSides(), DieLibrary.getModel(spec.getSides()), scale, spec.getResults(), baseRgb, null));
       List<Tuple3> directions = new ArrayList<>();
       directions.add(new Tuple3(61,42,307));// per second
-      world.add(new Die(12, DIE_MAP.get(99).clone(), scale, 3, baseRgb, directions));
-//      world.add(new Die(20, DIE_MAP.get(20).clone(), scale, 3, baseRgb, directions));
+      world.add(new Die(12, DieLibrary.getModel(99), scale, 3, baseRgb, directions));
+//      world.add(new Die(20, DieLibrary.getModel(20), scale, 3, baseRgb, directions));
       directions.clear();
       directions.add(new Tuple3(-61,-42,307));// per second
-      //_world.add(new Die(4, DIE_MAP.get(4).clone(), scale, 3, baseRgb, directions));
-//    world.add(new Die(6, DIE_MAP.get(6).clone(), scale, 3, baseRgb, directions));
+      //_world.add(new Die(4, DieLibrary.getModel(4), scale, 3, baseRgb, directions));
+//    world.add(new Die(6, DieLibrary.getModel(6), scale, 3, baseRgb, directions));
 
       shell.setSize(100, 100);
       shell.open();
@@ -112,7 +76,12 @@ public class DieShell extends Thread implements PaintListener
       shell.addListener(SWT.Close, event -> {
          System.out.println("Die Shell handling Close event, about to dispose this Shell");
          shell.dispose();
+         world.dispose();
+         painter.dispose();
+         backBuffers.dispose();
       });
+      // A resize needs a new frame, even if all the dice have come to rest
+      doubleBufferCanvas.addListener(SWT.Resize, event -> world.wake());
 
       start();
    }
@@ -121,6 +90,8 @@ public class DieShell extends Thread implements PaintListener
    public void run() {
       while (!shell.isDisposed()) {
          try {
+            // Once every die has come to rest, park here until a new die is added or the shell needs a new frame
+            world.awaitMotion();
             Thread.sleep(16);
 
          } catch (InterruptedException e) {
@@ -130,17 +101,32 @@ public class DieShell extends Thread implements PaintListener
          if (shell.isDisposed()) {
             break;
          }
+         long updateStart = System.nanoTime();
          world.update();
+         long updateNanos = System.nanoTime() - updateStart;
+         boolean settled = world.isSettled();
+         if (settled) {
+            // The frame at rest stays on the screen, so it is always drawn at the best quality
+            governor.reset();
+         }
 
          shell.getDisplay().asyncExec(() -> {
-            if (region != null) {
-               region.dispose();
+            // Only reshape the shell when the outline has moved by more than a pixel
+            Region newRegion = painter.getOutlineIfChanged();
+            if (newRegion != null) {
+               if (region != null) {
+                  region.dispose();
+               }
+               region = newRegion;
             }
-            region = world.getOutline();
 
             if (!shell.isDisposed()) {
-               image = paintImage(shell.getDisplay());
-               if ((region != null) && (!region.isDisposed())) {
+               long paintStart = System.nanoTime();
+               paintImage(shell.getDisplay());
+               if (!settled) {
+                  governor.recordFrame(updateNanos + (System.nanoTime() - paintStart));
+               }
+               if ((newRegion != null) && (!region.isDisposed())) {
                   shell.setRegion(region);
                   Rectangle size = region.getBounds();
                   // clip the height & width to [1, 100]
@@ -157,55 +143,43 @@ public class DieShell extends Thread implements PaintListener
    }
 
 
+   /**
+    * The governor of this shell's rendering quality, which reports the current quality level and frame times.
+    */
+   public QualityGovernor getQualityGovernor() {
+      return governor;
+   }
+
    @Override
    public void paintControl(PaintEvent event) {
-      // Draws the buffer image onto the canvas.
-      if ((image != null) && (!image.isDisposed())) {
+      // Draws the most recently presented buffer onto the canvas.
+      Image image = backBuffers.getPresentedImage();
+      if (image != null) {
          event.gc.drawImage(image, 0, 0);
       }
-
-      if (imageGC != null) {
-         imageGC.dispose();
-         imageGC = null;
-      }
    }
 
-   Image paintImage(Display display) {
+   /*
+    * Paints the next frame into a back buffer that isn't being shown, then presents it and asks the canvas to redraw.
+    */
+   void paintImage(Display display) {
       synchronized (world) {
-
-         // Creates new image only when absolutely necessary.
          Point canvasSize = doubleBufferCanvas.getSize();
-         int width = canvasSize.x;
-         int height = canvasSize.y;
-         if ((width > 0) && (height > 0)) {
-//          Image image = (Image) doubleBufferCanvas.getData("double-buffer-image");
-//            if (   (image == null)
-//                || (image.getBounds().width  < canvasSize.x)
-//                || (image.getBounds().height < canvasSize.y))
-            {
-               if (image != null) {
-                  width  = Math.max(width, image.getBounds().width);
-                  height = Math.max(height, image.getBounds().height);
-                  image.dispose();
-               }
-//               // Add 10 to the image size to reduce the chance it needs to be recreated
-//               width += 10; height += 10;
-
-//               System.out.println("creating image (" + width + ", " + height + ")");
-               image = new Image(display, width, height);
-//               doubleBufferCanvas.setData("double-buffer-image", image);
-            }
+         if ((canvasSize.x <= 0) || (canvasSize.y <= 0)) {
+            return;
          }
-
-         // Initializes the graphics context of the image.
+         BackBuffer buffer = backBuffers.acquire(display, canvasSize.x, canvasSize.y);
+         // The buffer still holds an older frame, so clear it first
+         buffer.gc.setBackground(display.getSystemColor(SWT.COLOR_WHITE));
+         buffer.gc.fillRectangle(0, 0, buffer.width, buffer.height);
          try {
-            imageGC = new GC(image);
-            world.paintControl(display, imageGC);
+            painter.paintControl(display, buffer.gc);
          }
          catch (IllegalArgumentException e) {
             System.out.println(e);
          }
-         return image;
+         backBuffers.present(buffer);
+         doubleBufferCanvas.redraw();
       }
    }
-}
\ No newline at end of file
+}
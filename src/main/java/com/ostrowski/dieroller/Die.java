@@ -1,16 +1,19 @@
 package com.ostrowski.dieroller;
 
 
-import static com.ostrowski.graphics.World3D.UP_VECTOR;
-
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import com.ostrowski.graphics.Frame;
 import com.ostrowski.graphics.Model;
-import com.ostrowski.graphics.model.ColoredFace;
+import com.ostrowski.graphics.MutableFrame;
 import com.ostrowski.graphics.model.Face;
+import com.ostrowski.graphics.model.Matrix3x3;
+import com.ostrowski.graphics.model.MutableMatrix3x3;
+import com.ostrowski.graphics.model.MutableTuple3;
 import com.ostrowski.graphics.model.ObjData;
+import com.ostrowski.graphics.model.Quaternion;
 import com.ostrowski.graphics.model.Tuple3;
 
 public class Die extends Model
@@ -20,11 +23,27 @@ public class Die extends Model
    private final Tuple3       targetOrientation;
    private final List<Tuple3> directions = new ArrayList<>();
    private final int          sides;
+   /* The model space normal of the face of each result, pointing the way it points when the result is rolled */
+   private final float[]      resultNormalX;
+   private final float[]      resultNormalY;
+   private final float[]      resultNormalZ;
+   /* The rotations that relabel each result as each other result, found when they are first asked for */
+   private final Quaternion[][] relabelings;
+   private final boolean[][]    relabelingsFound;
 
    public Die(int sides, ObjData data, float scale, int results, Integer baseRGB, List<Tuple3> directions) {
-      super(data, scale, baseRGB);
+      this(sides, data, scale, results, baseRGB, directions, null);
+   }
+
+   /**
+    * Creates a die that is thrown using the given random numbers, so identically seeded dice roll identically.
+    * A null random throws the die differently every time.
+    */
+   public Die(int sides, ObjData data, float scale, int results, Integer baseRGB, List<Tuple3> directions, Random random) {
+      super(data, scale, baseRGB, random);
       this.sides = sides;
       this.results = results;
+      Frame frame = getFrame();
       if (directions != null) {
          this.directions.addAll(directions);
          // override the default direction with the first direction
@@ -34,6 +53,21 @@ public class Die extends Model
       }
 
 
+      int resultCount = Math.min(sides, this.data.getFaceCount());
+      resultNormalX = new float[resultCount];
+      resultNormalY = new float[resultCount];
+      resultNormalZ = new float[resultCount];
+      for (int r = 0; r < resultCount; r++) {
+         // A d4 is read from the face it lands on, so its result faces point down when they are rolled
+         Tuple3 resultNormal = this.data.getFace(r).getCommonNormal().multiply((sides == 4) ? -1f : 1f);
+         resultNormalX[r] = resultNormal.getX();
+         resultNormalY[r] = resultNormal.getY();
+         resultNormalZ[r] = resultNormal.getZ();
+      }
+
+      relabelings = new Quaternion[resultCount][resultCount];
+      relabelingsFound = new boolean[resultCount][resultCount];
+
       Face face = this.data.getFace(this.results - 1);
       Tuple3 normal = face.getCommonNormal();
       if (sides == 4) {
@@ -45,44 +79,171 @@ public class Die extends Model
          frame = frame.setVelocity(frame.velocity.add(new Tuple3(10, -40, 0)));
       }
       // Orient the die so that it starts out with the results face up
-      frame = frame.setUp(targetOrientation);
+      setFrame(frame.setUp(targetOrientation));
    }
 
-   @Override
-   public void update(float elapsedTimeInSeconds, Tuple3 acceleration, float floorZValue) {
-      if (!moving) {
-         return;
+   public int getResultRGB() {
+      return resultRGB;
+   }
+
+   public int getSides() {
+      return sides;
+   }
+
+   /**
+    * Finds a symmetry of the die that turns the face of one result to where the face of another one is.
+    * Turning the die by it (in model space) before any other rotation leaves its shape exactly where it was,
+    * so it rolls just the same, but where it would have come to rest showing fromResult, it shows toResult.
+    *
+    * @return the rotation, or null if the die's shape has no such symmetry
+    */
+   public synchronized Quaternion getRelabeling(int fromResult, int toResult) {
+      if (fromResult == toResult) {
+         return Quaternion.IDENTITY;
+      }
+      if (!relabelingsFound[fromResult - 1][toResult - 1]) {
+         relabelings[fromResult - 1][toResult - 1] = findRelabeling(fromResult - 1, toResult - 1);
+         relabelingsFound[fromResult - 1][toResult - 1] = true;
+      }
+      return relabelings[fromResult - 1][toResult - 1];
+   }
+
+   /**
+    * Draws the die turned by the symmetry that takes the face of rolledResult (the result it shows now) to where
+    * the face of result is (see Model.setRelabeling()), on top of any relabeling it is already drawn with, so a roll
+    * that comes to rest showing rolledResult is seen to come to rest on result. This is how a roll that nothing
+    * steered is made to show the result it was asked for.
+    *
+    * @return false if the die's shape has no such symmetry, in which case it is drawn as it is
+    */
+   public boolean showResultInsteadOf(int rolledResult, int result) {
+      if ((result < 1) || (result > resultNormalX.length)) {
+         return false;
+      }
+      Quaternion turn = getRelabeling(rolledResult, result);
+      if (turn == null) {
+         return false;
+      }
+      // The die is drawn turned by its current relabeling, and then by this turn, before any other rotation
+      setRelabeling((relabeling == Quaternion.IDENTITY) ? turn : turn.followedBy(relabeling));
+      return true;
+   }
+
+   private Quaternion findRelabeling(int from, int to) {
+      Face fromFace = data.getFace(from);
+      Face toFace = data.getFace(to);
+      if (fromFace.vertexCount != toFace.vertexCount) {
+         return null;
+      }
+      // Try each way of lining up the corners of the two faces, with their normals lined up too
+      Tuple3 fromNormal = new Tuple3(resultNormalX[from], resultNormalY[from], resultNormalZ[from]);
+      Tuple3 toNormal = new Tuple3(resultNormalX[to], resultNormalY[to], resultNormalZ[to]);
+      Matrix3x3 toBasis = getBasis(toNormal, toFace.getVertex(0).subtract(toFace.getVertexCenter()));
+      for (int p = 0; p < fromFace.vertexCount; p++) {
+         Matrix3x3 fromBasis = getBasis(fromNormal, fromFace.getVertex(p).subtract(fromFace.getVertexCenter()));
+         // takes toBasis' rows (the to face's normal and corner) to fromBasis' rows
+         Matrix3x3 rotation = fromBasis.transpose().multiply(toBasis);
+         if (mapsVerticesOntoVertices(rotation)) {
+            return Quaternion.fromMatrix(rotation);
+         }
+      }
+      return null;
+   }
+
+   /* The rows of an orthonormal basis: the normal, the part of the corner direction perpendicular to it, and their cross product */
+   private static Matrix3x3 getBasis(Tuple3 normal, Tuple3 corner) {
+      Tuple3 perpendicular = corner.subtract(normal.multiply(corner.dotProduct(normal))).unitVector();
+      return new Matrix3x3(normal, perpendicular, normal.crossProduct(perpendicular));
+   }
+
+   private boolean mapsVerticesOntoVertices(Matrix3x3 rotation) {
+      float radius = 0;
+      for (int v = 0; v < vertexCount; v++) {
+         radius = Math.max(radius, (float) Math.sqrt((vertexX[v] * vertexX[v]) + (vertexY[v] * vertexY[v]) + (vertexZ[v] * vertexZ[v])));
+      }
+      float tolerance = radius * 1e-3f;
+      MutableTuple3 rotated = new MutableTuple3();
+      for (int v = 0; v < vertexCount; v++) {
+         rotation.multiplyInto(vertexX[v], vertexY[v], vertexZ[v], rotated);
+         boolean found = false;
+         for (int u = 0; (u < vertexCount) && !found; u++) {
+            found = (Math.abs(rotated.getX() - vertexX[u]) < tolerance) &&
+                    (Math.abs(rotated.getY() - vertexY[u]) < tolerance) &&
+                    (Math.abs(rotated.getZ() - vertexZ[u]) < tolerance);
+         }
+         if (!found) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * @return the result the die shows in its current orientation (from 1 to the number of sides), turned by its
+    *         relabeling: the result whose face is turned most nearly up, which is the face the die was aimed
+    *         to show when it was created.
+    */
+   public int getResult() {
+      // The world Z of a rotated normal is the bottom row of the orientation matrix times the normal
+      MutableMatrix3x3 orientation = state.getOrientationTransform();
+      float m20 = orientation.get(2, 0);
+      float m21 = orientation.get(2, 1);
+      float m22 = orientation.get(2, 2);
+      if (relabeling != Quaternion.IDENTITY) {
+         // The die is drawn turned by the relabeling first, so the bottom row is times its matrix too
+         Matrix3x3 turn = relabeling.toMatrix3x3();
+         float r20 = m20, r21 = m21, r22 = m22;
+         m20 = (r20 * turn.get(0, 0)) + (r21 * turn.get(1, 0)) + (r22 * turn.get(2, 0));
+         m21 = (r20 * turn.get(0, 1)) + (r21 * turn.get(1, 1)) + (r22 * turn.get(2, 1));
+         m22 = (r20 * turn.get(0, 2)) + (r21 * turn.get(1, 2)) + (r22 * turn.get(2, 2));
+      }
+      int result = 1;
+      float highestZ = -Float.MAX_VALUE;
+      for (int r = 0; r < resultNormalX.length; r++) {
+         float z = (m20 * resultNormalX[r]) + (m21 * resultNormalY[r]) + (m22 * resultNormalZ[r]);
+         if (z > highestZ) {
+            highestZ = z;
+            result = r + 1;
+         }
       }
-      super.update(elapsedTimeInSeconds, acceleration, floorZValue);
+      return result;
    }
 
+   /**
+    * Throws the die again, at random, without any of the directions it was created with.
+    */
    @Override
-   protected Frame bounce(Frame frame, Tuple3 positionedCenterMassAtFloor, Tuple3 positionedCenterMass,
-                          float elapsedTimeInSeconds, Tuple3 acceleration) {
-      // Use the vectors in the directions list for each bounce.
+   public void reset(Random random) {
+      directions.clear();
+      super.reset(random);
+   }
+
+   @Override
+   protected void bounce(MutableFrame frame, MutableTuple3 positionedCenterMassAtFloor, MutableTuple3 positionedCenterMass,
+                         float elapsedTimeInSeconds, Tuple3 acceleration) {
+      // Use the vectors in the directions list for each bounce, starting again from before this step.
       if ((directions != null) && (!directions.isEmpty())) {
-         return this.frame.setVelocity(directions.remove(0));
+         frame.set(state).velocity.set(directions.remove(0));
+         return;
       }
-      return super.bounce(frame, positionedCenterMassAtFloor, positionedCenterMass, elapsedTimeInSeconds, acceleration);
+      super.bounce(frame, positionedCenterMassAtFloor, positionedCenterMass, elapsedTimeInSeconds, acceleration);
    }
 
    @Override
-   public List<ColoredFace> getColoredFaces() {
-      List<ColoredFace> faces = super.getColoredFaces();
+   public void getFaceColors(float[] upness, int[] colors) {
+      super.getFaceColors(upness, colors);
       // augment the results face by shading in a contrasting color
       if (!moving) {
          int facesToFind = data.getFaceCount() / sides;
-         for (ColoredFace face : faces) {
-            float upness = face.getCommonNormal().dotProduct(UP_VECTOR);
-            if (upness > 0.95f) {
-               face.setColor(resultRGB);
+         for (int f = 0; f < colors.length; f++) {
+            if (upness[f] > 0.95f) {
+               colors[f] = resultRGB;
                if (--facesToFind == 0) {
                   break;
                }
             }
          }
       }
-      return faces;
    }
 
 
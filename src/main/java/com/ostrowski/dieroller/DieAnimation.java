@@ -0,0 +1,194 @@
+package com.ostrowski.dieroller;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+import com.ostrowski.graphics.Frame;
+import com.ostrowski.graphics.FrameBuffer;
+import com.ostrowski.graphics.GifEncoder;
+import com.ostrowski.graphics.World3D;
+
+/**
+ * Rolls a die without any window, and writes the whole roll, from the throw until it comes to rest, as an animated GIF.
+ * <p>
+ * The roll is simulated in the same fixed steps as the DieSnapshot, and every few steps a frame is rendered and handed
+ * straight to a GifEncoder, which only encodes what changed since the frame before. Only one frame is ever held in
+ * memory, however long the roll lasts. Since a GIF has to give its size before its first frame, the roll is simulated
+ * twice from the same throw: first without rendering anything, to find the area the die and its shadow cover over the
+ * whole roll, and then again to render it. The second pass is drawn turned by the symmetry of the die that shows the
+ * face the first one came to rest on as the result of the spec, which leaves the physics exactly as it was. Given a
+ * TrajectoryLibrary, both passes replay the same one of its recorded rolls of the spec's result instead.
+ */
+public class DieAnimation
+{
+   /* 3 steps of 1/60 of a second is 20 frames per second */
+   public static final int STEPS_PER_FRAME                   = 3;
+   public static final int FRAME_DELAY_IN_CENTISECONDS       = Math.round(100 * STEPS_PER_FRAME * DieSnapshot.TIME_STEP_IN_SECONDS);
+   /* How long the die is shown at rest before the animation ends */
+   public static final int FINAL_FRAME_DELAY_IN_CENTISECONDS = 200;
+   public static final int BACKGROUND_RGB                    = 0xFFFFFF;
+   public static final int MAX_STEPS                         = Math.round(DieSnapshot.MAX_SIMULATED_SECONDS / DieSnapshot.TIME_STEP_IN_SECONDS);
+
+   /* The palette holds every face color lit at each of these brightness levels, plus each of these levels of the texture */
+   private static final int BRIGHTNESS_LEVELS = 15;
+   private static final int TEXTURE_LEVELS    = 8;
+
+   private DieAnimation() {
+   }
+
+   /**
+    * Rolls the die described by the spec (such as "d20=20") to rest, and writes the roll to the stream as an animated GIF.
+    *
+    * @return the result the die is shown coming to rest on, which is the spec's result, unless the die has no
+    *         symmetry that turns the face it came to rest on into that one
+    */
+   public static int writeGif(String spec, float scale, Integer baseRgb, OutputStream out) throws IOException {
+      return writeGif(DieSpec.parse(spec), scale, baseRgb, out);
+   }
+
+   public static int writeGif(DieSpec spec, float scale, Integer baseRgb, OutputStream out) throws IOException {
+      return writeGif(spec, scale, baseRgb, null, null, out);
+   }
+
+   /**
+    * Writes the roll as an animated GIF, with the die thrown using the given random numbers (or differently every
+    * time, if it is null), so identically seeded animations are identical. The roll is replayed from the library,
+    * if it is given one with a recording of the result at this scale.
+    */
+   public static int writeGif(DieSpec spec, float scale, Integer baseRgb, Random random, TrajectoryLibrary library,
+                              OutputStream out) throws IOException {
+      // The first pass only finds the bounds of every frame
+      Die die = createDie(spec, scale, baseRgb, random);
+      Frame throwFrame = die.getFrame();
+      World3D world = new World3D(DieLibrary.getTexture());
+      world.add(die);
+      // Both passes pick the recording to replay with the same random numbers, so they replay the same one
+      long replaySeed = (random == null) ? System.nanoTime() : random.nextLong();
+      replay(library, die, spec, world, replaySeed);
+      int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+      for (int step = 0; ; step += STEPS_PER_FRAME) {
+         int[] frameBounds = world.getOutlineBounds();
+         bounds[0] = Math.min(bounds[0], frameBounds[0]);
+         bounds[1] = Math.min(bounds[1], frameBounds[1]);
+         bounds[2] = Math.max(bounds[2], frameBounds[2]);
+         bounds[3] = Math.max(bounds[3], frameBounds[3]);
+         if (!advance(world, step)) {
+            break;
+         }
+      }
+      int minX = Math.max(0, bounds[0] - DieSnapshot.MARGIN);
+      int minY = Math.max(0, bounds[1] - DieSnapshot.MARGIN);
+      int maxX = Math.max(minX, bounds[2] + DieSnapshot.MARGIN);
+      int maxY = Math.max(minY, bounds[3] + DieSnapshot.MARGIN);
+      int width = (maxX - minX) + 1;
+      int height = (maxY - minY) + 1;
+
+      // The second pass throws an identical die the same way, and renders it, turned by the symmetry that shows
+      // the face the first one came to rest on as the result asked for (which a replayed roll already comes to rest on)
+      int rolledResult = die.getResult();
+      die = createDie(spec, scale, baseRgb, null);
+      die.setFrame(throwFrame);
+      world = new World3D(DieLibrary.getTexture());
+      world.add(die);
+      replay(library, die, spec, world, replaySeed);
+      die.showResultInsteadOf(rolledResult, spec.getResults());
+      FrameBuffer frameBuffer = new FrameBuffer();
+      frameBuffer.setSize(maxX + 1, maxY + 1);
+      int offset = (minY * frameBuffer.getWidth()) + minX;
+      int stride = frameBuffer.getWidth();
+      GifEncoder encoder = new GifEncoder(out, width, height, buildPalette(BACKGROUND_RGB, die.getBaseRGB(), die.getResultRGB()));
+      for (int step = 0; ; step += STEPS_PER_FRAME) {
+         world.render(frameBuffer);
+         int[] pixels = frameBuffer.getPixels();
+         for (int y = 0; y < height; y++) {
+            int row = offset + (y * stride);
+            for (int x = row; x < (row + width); x++) {
+               if (pixels[x] == FrameBuffer.TRANSPARENT_RGB) {
+                  pixels[x] = BACKGROUND_RGB;
+               }
+            }
+         }
+         boolean lastFrame = !advance(world, step);
+         encoder.writeFrame(pixels, offset, stride, lastFrame ? FINAL_FRAME_DELAY_IN_CENTISECONDS : FRAME_DELAY_IN_CENTISECONDS);
+         if (lastFrame) {
+            break;
+         }
+      }
+      encoder.finish();
+      return die.getResult();
+   }
+
+   private static Die createDie(DieSpec spec, float scale, Integer baseRgb, Random random) {
+      return new Die(spec.getSides(), DieLibrary.getModel(spec.getSides()), scale, spec.getResults(), baseRgb, null, random);
+   }
+
+   private static void replay(TrajectoryLibrary library, Die die, DieSpec spec, World3D world, long seed) {
+      if (library != null) {
+         library.replay(die, spec.getResults(), world, new Random(seed));
+      }
+   }
+
+   /* Steps the world to the next frame, and returns false if the frame it was on is the last one. */
+   private static boolean advance(World3D world, int step) {
+      if (world.isSettled() || (step >= MAX_STEPS)) {
+         return false;
+      }
+      for (int s = 0; (s < STEPS_PER_FRAME) && !world.isSettled(); s++) {
+         world.step(DieSnapshot.TIME_STEP_IN_SECONDS);
+      }
+      return true;
+   }
+
+   /**
+    * Builds the palette for dice of the given face colors: the background, the shadow, and each face color lit by each
+    * brightness level, with each level of the (gray) texture added on top of it, as the World3D shades them.
+    */
+   static int[] buildPalette(int backgroundRGB, int... faceRGBs) {
+      Set<Integer> colors = new LinkedHashSet<>();
+      colors.add(backgroundRGB);
+      colors.add(0);  // the shadow
+      for (int faceRGB : faceRGBs) {
+         for (int t = 0; t < TEXTURE_LEVELS; t++) {
+            int gray = Math.round((t * 255f) / (TEXTURE_LEVELS - 1));
+            int red   = Math.min(0xFF, ((faceRGB >> 16) & 0xFF) + gray);
+            int green = Math.min(0xFF, ((faceRGB >>  8) & 0xFF) + gray);
+            int blue  = Math.min(0xFF, ( faceRGB        & 0xFF) + gray);
+            for (int b = 0; b < BRIGHTNESS_LEVELS; b++) {
+               float brightness = World3D.DARKEST_COLOR +
+                                  (((World3D.LIGHTEST_COLOR - World3D.DARKEST_COLOR) * b) / (BRIGHTNESS_LEVELS - 1));
+               colors.add((Math.round(red * brightness) << 16) | (Math.round(green * brightness) << 8) | Math.round(blue * brightness));
+            }
+         }
+      }
+      int[] palette = new int[Math.min(colors.size(), GifEncoder.MAX_COLORS)];
+      int i = 0;
+      for (Integer rgb : colors) {
+         if (i == palette.length) {
+            break;
+         }
+         palette[i++] = rgb;
+      }
+      return palette;
+   }
+
+   /**
+    * Usage: DieAnimation {die spec, such as d20=20} {output file} [scale] [trajectory library]
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 2) {
+         System.out.println("Usage: DieAnimation {die spec, such as d20=20} {output.gif} [scale] [trajectory library]");
+         return;
+      }
+      float scale = (args.length > 2) ? Float.parseFloat(args[2]) : RollSimulator.SCALE;
+      TrajectoryLibrary library = (args.length > 3) ? TrajectoryLibrary.open(new File(args[3])) : null;
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]))) {
+         writeGif(DieSpec.parse(args[0]), scale, 0x3030FF, null, library, out);
+      }
+   }
+}
@@ -0,0 +1,53 @@
+package com.ostrowski.dieroller;
+
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.ostrowski.graphics.model.ObjData;
+import com.ostrowski.graphics.model.ObjLoader;
+import com.ostrowski.graphics.model.Texture;
+
+/**
+ * The meshes of every kind of die, and the texture they share, loaded once.
+ */
+public class DieLibrary
+{
+   private static final Map<Integer, ObjData> DIE_MAP = new HashMap<>();
+   private static       Texture               TEXTURE = null;
+
+   static {
+      try {
+         DIE_MAP.put( 4, ObjLoader.loadObj("d4.obj"));
+         DIE_MAP.put( 6, ObjLoader.loadObj("d6.obj"));
+         DIE_MAP.put( 8, ObjLoader.loadObj("d8.obj"));
+         DIE_MAP.put(10, ObjLoader.loadObj("d10.obj"));
+         DIE_MAP.put(12, ObjLoader.loadObj("d12.obj"));
+         DIE_MAP.put(99, ObjLoader.loadObj("d99.obj"));
+         DIE_MAP.put(20, ObjLoader.loadObj("d20.obj"));
+         TEXTURE = ObjLoader.loadTexture("diceMapLettersOnBlack.png");
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   private DieLibrary() {
+   }
+
+   /**
+    * @return a copy of the mesh of the die with the given number of sides, which the caller is free to scale.
+    * @throws InvalidParameterException if there is no such die
+    */
+   public static ObjData getModel(int sides) {
+      ObjData data = DIE_MAP.get(sides);
+      if (data == null) {
+         throw new InvalidParameterException("no die with " + sides + " sides");
+      }
+      return data.clone();
+   }
+
+   public static Texture getTexture() {
+      return TEXTURE;
+   }
+}
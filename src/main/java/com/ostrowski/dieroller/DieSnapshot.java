@@ -0,0 +1,123 @@
+package com.ostrowski.dieroller;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import com.ostrowski.graphics.FrameBuffer;
+import com.ostrowski.graphics.World3D;
+
+/**
+ * Rolls a die without any window (or SWT Display) at all, and renders where it comes to rest into an image.
+ * <p>
+ * The roll is simulated in fixed steps as fast as the physics allows, with none of the pauses the animated
+ * DieShell makes between frames, and only the final frame is ever rendered. The image is cropped to the die
+ * and its shadow, and everything else in it is transparent. Given a TrajectoryLibrary, the die replays one of its
+ * recorded rolls of the spec's result, which costs next to nothing. Otherwise (or if the library has no such roll),
+ * the die is drawn turned by the symmetry of its shape that shows the result of the spec on the face it came to rest on.
+ */
+public class DieSnapshot
+{
+   /* The simulated time between steps, which matches the frame rate the DieShell animates at */
+   public static final float TIME_STEP_IN_SECONDS   = 1 / 60f;
+   /* Rolls that still haven't come to rest after this long are rendered as they are */
+   public static final float MAX_SIMULATED_SECONDS = 30f;
+   /* The transparent border left around the die and its shadow */
+   public static final int   MARGIN                = 2;
+
+   private DieSnapshot() {
+   }
+
+   /**
+    * Rolls the die described by the spec (such as "d20=20") to rest, and renders it.
+    */
+   public static BufferedImage render(String spec, float scale, Integer baseRgb) {
+      return render(DieSpec.parse(spec), scale, baseRgb);
+   }
+
+   public static BufferedImage render(DieSpec spec, float scale, Integer baseRgb) {
+      return render(spec, scale, baseRgb, null, null);
+   }
+
+   /**
+    * Rolls the die described by the spec to rest, thrown using the given random numbers (or differently every
+    * time, if it is null), so identically seeded snapshots are identical, and renders it. The roll is replayed
+    * from the library, if it is given one with a recording of the result at this scale.
+    */
+   public static BufferedImage render(DieSpec spec, float scale, Integer baseRgb, Random random, TrajectoryLibrary library) {
+      World3D world = new World3D(DieLibrary.getTexture());
+      roll(world, spec, scale, baseRgb, random, library);
+
+      // Only render as much of the screen as the die and its shadow cover
+      int[] bounds = world.getOutlineBounds();
+      int minX = Math.max(0, bounds[0] - MARGIN);
+      int minY = Math.max(0, bounds[1] - MARGIN);
+      int maxX = Math.max(minX, bounds[2] + MARGIN);
+      int maxY = Math.max(minY, bounds[3] + MARGIN);
+      FrameBuffer frameBuffer = new FrameBuffer();
+      frameBuffer.setSize(maxX + 1, maxY + 1);
+      world.render(frameBuffer);
+
+      int width = (maxX - minX) + 1;
+      int height = (maxY - minY) + 1;
+      int[] argb = new int[width * height];
+      int[] pixels = frameBuffer.getPixels();
+      for (int y = 0; y < height; y++) {
+         int source = ((minY + y) * frameBuffer.getWidth()) + minX;
+         for (int x = 0; x < width; x++) {
+            int rgb = pixels[source + x];
+            argb[(y * width) + x] = (rgb == FrameBuffer.TRANSPARENT_RGB) ? 0 : (0xFF000000 | rgb);
+         }
+      }
+      BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+      image.setRGB(0, 0, width, height, argb, 0, width);
+      return image;
+   }
+
+   /**
+    * Adds the die described by the spec to the world, thrown using the given random numbers (which may be null),
+    * and rolls it to rest (or for MAX_SIMULATED_SECONDS), replaying a roll from the library (which may be null)
+    * if it has one.
+    *
+    * @return the die, shown coming to rest on the spec's result
+    */
+   static Die roll(World3D world, DieSpec spec, float scale, Integer baseRgb, Random random, TrajectoryLibrary library) {
+      Die die = new Die(spec.getSides(), DieLibrary.getModel(spec.getSides()), scale, spec.getResults(), baseRgb, null, random);
+      world.add(die);
+      if (library != null) {
+         library.replay(die, spec.getResults(), world, (random == null) ? new Random() : random);
+      }
+      for (float time = 0; (time < MAX_SIMULATED_SECONDS) && !world.isSettled(); time += TIME_STEP_IN_SECONDS) {
+         world.step(TIME_STEP_IN_SECONDS);
+      }
+      // Nothing steers a roll of the physics, so show the face it came to rest on as the result asked for
+      // (a replayed roll already comes to rest on it)
+      die.showResultInsteadOf(die.getResult(), spec.getResults());
+      return die;
+   }
+
+   /**
+    * Rolls the die described by the spec to rest, and writes the image of it to the stream as a PNG.
+    */
+   public static void writePng(String spec, float scale, Integer baseRgb, OutputStream out) throws IOException {
+      ImageIO.write(render(spec, scale, baseRgb), "png", out);
+   }
+
+   /**
+    * Usage: DieSnapshot {die spec, such as d20=20} {output file} [scale] [trajectory library]
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 2) {
+         System.out.println("Usage: DieSnapshot {die spec, such as d20=20} {output.png} [scale] [trajectory library]");
+         return;
+      }
+      float scale = (args.length > 2) ? Float.parseFloat(args[2]) : RollSimulator.SCALE;
+      TrajectoryLibrary library = (args.length > 3) ? TrajectoryLibrary.open(new File(args[3])) : null;
+      BufferedImage image = render(DieSpec.parse(args[0]), scale, 0x3030FF, null, library);
+      ImageIO.write(image, "png", new File(args[1]));
+   }
+}
@@ -0,0 +1,66 @@
+package com.ostrowski.dieroller;
+
+import java.security.InvalidParameterException;
+
+/**
+ * A die to roll, as described by strings such as "d20" (a d20 with a random result) or "d20=17" (a d20 that rolls 17).
+ * For the d12, a result of "+" or "-" is the same as 12 or 11.
+ */
+public class DieSpec
+{
+   private final int sides;
+   private final int results;
+
+   public DieSpec(int sides, int results) {
+      this.sides = sides;
+      this.results = results;
+   }
+
+   /**
+    * Parses a die description. If the description doesn't give the results, they are chosen at random.
+    *
+    * @throws InvalidParameterException if the description isn't of the form "d{sides}" or "d{sides}={results}"
+    */
+   public static DieSpec parse(String arg) {
+      if ((arg == null) || !arg.startsWith("d")) {
+         throw new InvalidParameterException("die description must start with 'd': " + arg);
+      }
+      String sideStr = arg.substring(1);
+      Integer results = null;
+      int equalLoc = arg.indexOf("=");
+      try {
+         if (equalLoc != -1) {
+            sideStr = arg.substring(1, equalLoc);
+            String resultsStr = arg.substring(equalLoc + 1);
+            if (resultsStr.equals("+")) {
+               resultsStr = "12";
+            }
+            if (resultsStr.equals("-")) {
+               resultsStr = "11";
+            }
+            results = Integer.parseInt(resultsStr);
+         }
+         int sides = Integer.parseInt(sideStr);
+         if (results == null) {
+            results = 1 + (int)(Math.floor(Math.random() * sides));
+         }
+         return new DieSpec(sides, results);
+      }
+      catch (NumberFormatException e) {
+         throw new InvalidParameterException("invalid die description: " + arg);
+      }
+   }
+
+   public int getSides() {
+      return sides;
+   }
+
+   public int getResults() {
+      return results;
+   }
+
+   @Override
+   public String toString() {
+      return "d" + sides + "=" + results;
+   }
+}
@@ -1,14 +1,41 @@
 package com.ostrowski.dieroller;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadataNode;
+
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Device;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.ostrowski.graphics.ColorCache;
+import com.ostrowski.graphics.MutableFrame;
+import com.ostrowski.graphics.FrameBuffer;
+import com.ostrowski.graphics.GifEncoder;
 import com.ostrowski.graphics.Model;
+import com.ostrowski.graphics.QualityGovernor;
+import com.ostrowski.graphics.Rasterizer;
+import com.ostrowski.graphics.Frame;
+import com.ostrowski.graphics.TriangleGradients;
+import com.ostrowski.graphics.VertexKernel;
 import com.ostrowski.graphics.World3D;
 import com.ostrowski.graphics.model.Matrix3x3;
+import com.ostrowski.graphics.model.ObjData;
+import com.ostrowski.graphics.model.ObjLoader;
+import com.ostrowski.graphics.model.Quaternion;
+import com.ostrowski.graphics.model.Texture;
 import com.ostrowski.graphics.model.Tuple2;
 import com.ostrowski.graphics.model.Tuple3;
 
@@ -112,4 +139,628 @@ public class DieTest
          }
       }
    }
+
+   @Test
+   public void testRasterizerFillRule() {
+      // A quad split into two triangles along its diagonal must cover every pixel exactly once,
+      // and must cover the same pixels the isInside test says are strictly inside it.
+      int[] quad = {3, 2, 57, 9, 49, 61, 6, 44};
+      int[][] hits = new int[70][70];
+      Rasterizer.fillFace(quad, 0, 0, 70, 70, (triangleIndex, y, xStart, xEnd) -> {
+         for (int x = xStart; x < xEnd; x++) {
+            hits[x][y]++;
+         }
+      });
+      for (int x = 0; x < 70; x++) {
+         for (int y = 0; y < 70; y++) {
+            Assert.assertTrue(hits[x][y] <= 1);
+            boolean inside = World3D.isInside(quad[0], quad[1], quad[2], quad[3], quad[4], quad[5], x, y) ||
+                             World3D.isInside(quad[4], quad[5], quad[6], quad[7], quad[0], quad[1], x, y);
+            if (hits[x][y] == 1) {
+               Assert.assertTrue(inside);
+            }
+            // Pixels strictly inside of the quad (including those on the shared diagonal) can't be dropped
+            boolean strictlyInside = true;
+            for (int p = 0; p < 8; p += 2) {
+               int x0 = quad[p], y0 = quad[p + 1], x1 = quad[(p + 2) % 8], y1 = quad[(p + 3) % 8];
+               strictlyInside &= (((x1 - x0) * (y - y0)) - ((y1 - y0) * (x - x0))) > 0;
+            }
+            if (strictlyInside) {
+               Assert.assertEquals("pixel " + x + "," + y, 1, hits[x][y]);
+            }
+         }
+      }
+      // the clip rectangle must be respected
+      Rasterizer.fillTriangle(-20, -20, 100, -20, -20, 100, 0, 0, 10, 10, (y, xStart, xEnd) -> {
+         Assert.assertTrue((y >= 0) && (y < 10) && (xStart >= 0) && (xEnd <= 10));
+      });
+   }
+
+   @Test
+   public void testTriangleGradientsMatchTextureMapper() {
+      // With no perspective correction the gradients are the same affine mapping as the TextureMapper
+      Tuple2 t0 = new Tuple2(0.1f, -0.9f);
+      Tuple2 t1 = new Tuple2(0.4f, -0.8f);
+      Tuple2 t2 = new Tuple2(0.2f, -0.5f);
+      TriangleGradients gradients = new TriangleGradients();
+      Assert.assertTrue(gradients.setup(0, 40, 0.001f, t0, 60, 10, 0.002f, t1, 90, 50, 0.003f, t2, false));
+      for (int x = 30; x < 80; x += 7) {
+         for (int y = 25; y < 45; y += 5) {
+            Tuple2 expected = TextureMapper.getTextureMap(x, y, 0, 40, 60, 10, 90, 50, t0, t1, t2);
+            Assert.assertTrue(Math.abs(gradients.getU(x, y) - expected.getX()) < 0.001);
+            Assert.assertTrue(Math.abs(gradients.getV(x, y) - expected.getY()) < 0.001);
+         }
+      }
+      // but the depth is still interpolated
+      Assert.assertEquals(0.002f, gradients.getDepth(60, 10), 0.000001);
+      Assert.assertEquals(0.003f, gradients.getDepth(90, 50), 0.000001);
+      // a degenerate triangle can't be set up
+      Assert.assertFalse(gradients.setup(0, 0, 1, t0, 10, 10, 1, t1, 20, 20, 1, t2, true));
+   }
+
+   @Test
+   public void testTexture() {
+      // a black and white checkerboard should average out to grey once a pixel covers several texels
+      BufferedImage checkerboard = new BufferedImage(64, 32, BufferedImage.TYPE_INT_RGB);
+      for (int x = 0; x < 64; x++) {
+         for (int y = 0; y < 32; y++) {
+            checkerboard.setRGB(x, y, ((x + y) % 2) == 0 ? 0xFFFFFF : 0x000000);
+         }
+      }
+      Texture texture = new Texture(checkerboard);
+      Assert.assertEquals(7, texture.getLevelCount());
+      Assert.assertEquals(1, texture.getLevelWidth(6));
+      Assert.assertEquals(1, texture.getLevelHeight(6));
+      Assert.assertEquals(0xFFFFFF, texture.sample(0.5f / 64, 0.5f / 32, 1));
+      int grey = texture.sample(0.5f, 0.5f, 6.5f);
+      Assert.assertTrue(Math.abs(((grey >> 16) & 0xFF) - 0x80) <= 1);
+      Assert.assertTrue(Math.abs((grey & 0xFF) - 0x80) <= 1);
+
+      // addressing outside of the texture
+      Assert.assertEquals(0xFFFFFF, texture.getTexel(0, -1, 0));
+      Assert.assertEquals(0x000000, texture.getTexel(0, 64, 0));
+      Texture wrapped = new Texture(checkerboard, Texture.Addressing.WRAP);
+      Assert.assertEquals(0x000000, wrapped.getTexel(0, -1, 0));
+      Assert.assertEquals(0xFFFFFF, wrapped.getTexel(0, 64, 0));
+   }
+
+   @Test
+   public void testColorCache() {
+      // Don't allocate native colors, just count lookups
+      ColorCache cache = new ColorCache(3) {
+         @Override
+         protected Color createColor(Device device, int red, int green, int blue) {
+            return null;
+         }
+      };
+      cache.get(null, 0xFF0000, 1f);
+      cache.get(null, 0x00FF00, 1f);
+      cache.get(null, 0x0000FF, 1f);
+      // brightnesses that quantize to the same level share a color
+      cache.get(null, 0xFF0000, 1.0001f);
+      Assert.assertEquals(3, cache.getMisses());
+      Assert.assertEquals(1, cache.getHits());
+      Assert.assertEquals(0, cache.getEvictions());
+
+      // Green is now the least recently used, so it makes room for the next new color
+      cache.get(null, 0xFF0000, 0.5f);
+      Assert.assertEquals(1, cache.getEvictions());
+      Assert.assertEquals(3, cache.size());
+      cache.get(null, 0x0000FF, 1f);
+      cache.get(null, 0xFF0000, 1f);
+      Assert.assertEquals(3, cache.getHits());
+      cache.get(null, 0x00FF00, 1f);
+      Assert.assertEquals(5, cache.getMisses());
+
+      // churn through many colors, and make sure every one is still found while it is in the cache
+      for (int i = 0; i < 1000; i++) {
+         cache.get(null, i * 77, 1f);
+         long hits = cache.getHits();
+         cache.get(null, i * 77, 1f);
+         Assert.assertEquals(hits + 1, cache.getHits());
+      }
+      Assert.assertEquals(3, cache.size());
+      cache.dispose();
+      Assert.assertEquals(0, cache.size());
+   }
+
+   @Test
+   public void testParallelRenderingMatchesSequential() throws Exception {
+      Texture texture = ObjLoader.loadTexture("diceMapLettersOnBlack.png");
+      World3D world = new World3D(texture);
+      world.add(new Die(20, ObjLoader.loadObj("d20.obj"), 150f, 20, 0x3030FF, null));
+      world.add(new Die(6, ObjLoader.loadObj("d6.obj"), 150f, 6, 0xFF3030, null));
+      // A pool of its own, so the frame is split into tiles even on a machine with a single core
+      ForkJoinPool pool = new ForkJoinPool(4);
+      world.setRenderPool(pool);
+      try {
+         for (boolean depthBuffer : new boolean[] {true, false}) {
+            world.setUseDepthBuffer(depthBuffer);
+            FrameBuffer sequential = new FrameBuffer();
+            sequential.setSize(1200, 900);
+            world.setParallelRendering(false);
+            world.render(sequential);
+
+            FrameBuffer parallel = new FrameBuffer();
+            parallel.setSize(1200, 900);
+            world.setParallelRendering(true);
+            world.setParallelPixelThreshold(0);
+            world.render(parallel);
+            // the tiles were shaded by the pool's threads, not the test's
+            Assert.assertTrue(pool.getPoolSize() > 0);
+
+            int drawnPixels = 0;
+            for (int i = 0; i < (1200 * 900); i++) {
+               Assert.assertEquals(sequential.getPixels()[i], parallel.getPixels()[i]);
+               if (sequential.getPixels()[i] != FrameBuffer.TRANSPARENT_RGB) {
+                  drawnPixels++;
+               }
+            }
+            Assert.assertTrue(drawnPixels > 1000);
+         }
+      }
+      finally {
+         pool.shutdown();
+      }
+   }
+
+   @Test
+   public void testVertexKernelMatchesPositionVertex() {
+      Frame frame = new Frame(new Tuple3(600, 300, 300), new Tuple3(0, 0, 0), new Tuple3(61, 42, 307))
+                             .rotateByDegrees(37);
+      float[] x = {0, 1, -20, 35.5f};
+      float[] y = {0, 2, 13, -7};
+      float[] z = {0, 3, 4, 100};
+      float[] outX = new float[4], outY = new float[4], outZ = new float[4];
+      float[] transform = frame.getAffineTransform(new float[VertexKernel.AFFINE_SIZE]);
+      VertexKernel.transformPoints(transform, x, y, z, outX, outY, outZ, 4);
+      for (int i = 0; i < 4; i++) {
+         Tuple3 expected = frame.positionVertex(new Tuple3(x[i], y[i], z[i]));
+         Assert.assertEquals(expected.getX(), outX[i], 0.001);
+         Assert.assertEquals(expected.getY(), outY[i], 0.001);
+         Assert.assertEquals(expected.getZ(), outZ[i], 0.001);
+      }
+
+      // directions ignore the translation
+      VertexKernel.transformDirections(transform, x, y, z, outX, outY, outZ, 4);
+      Tuple3 expected = new Tuple3(x[3], y[3], z[3]).applyTransformation(frame.getOrientationTransform());
+      Assert.assertEquals(expected.getX(), outX[3], 0.001);
+      Assert.assertEquals(expected.getY(), outY[3], 0.001);
+      Assert.assertEquals(expected.getZ(), outZ[3], 0.001);
+   }
+
+   @Test
+   public void testSnapshotShowsTheResultOfTheSpec() {
+      Random random = new Random(13);
+      for (String spec : new String[] {"d20=20", "d20=7", "d6=6", "d8=3", "d12=11", "d4=2"}) {
+         World3D world = new World3D(DieLibrary.getTexture());
+         Die die = DieSnapshot.roll(world, DieSpec.parse(spec), 50f, null, random, null);
+         Assert.assertTrue(spec, world.isSettled());
+         Assert.assertEquals(spec, DieSpec.parse(spec).getResults(), die.getResult());
+      }
+      BufferedImage image = DieSnapshot.render(DieSpec.parse("d20=20"), 50f, 0x3030FF, random, null);
+      Assert.assertTrue((image.getWidth() > 0) && (image.getHeight() > 0));
+      // The same seed takes the same snapshot
+      BufferedImage again = DieSnapshot.render(DieSpec.parse("d20=20"), 50f, 0x3030FF, new Random(1), null);
+      image = DieSnapshot.render(DieSpec.parse("d20=20"), 50f, 0x3030FF, new Random(1), null);
+      Assert.assertEquals(image.getWidth(), again.getWidth());
+      Assert.assertEquals(image.getHeight(), again.getHeight());
+      Assert.assertEquals(image.getRGB(image.getWidth() / 2, image.getHeight() / 2),
+                          again.getRGB(again.getWidth() / 2, again.getHeight() / 2));
+   }
+
+   @Test
+   public void testGifEncoderOnlyWritesChangedPixels() throws Exception {
+      int width = 40;
+      int height = 30;
+      int[] palette = {0xFFFFFF, 0x000000, 0x3030FF};
+      int[] pixels = new int[width * height];
+      Arrays.fill(pixels, 0xFFFFFF);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      GifEncoder encoder = new GifEncoder(out, width, height, palette);
+      encoder.writeFrame(pixels, 0, width, 5);
+      // change a 3x2 block, with a color that isn't quite in the palette
+      for (int y = 10; y < 12; y++) {
+         for (int x = 20; x < 23; x++) {
+            pixels[(y * width) + x] = 0x3131FE;
+         }
+      }
+      encoder.writeFrame(pixels, 0, width, 5);
+      encoder.writeFrame(pixels, 0, width, 200);
+      encoder.finish();
+
+      ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+      reader.setInput(ImageIO.createImageInputStream(new ByteArrayInputStream(out.toByteArray())));
+      Assert.assertEquals(3, reader.getNumImages(true));
+      BufferedImage first = reader.read(0);
+      Assert.assertEquals(width, first.getWidth());
+      Assert.assertEquals(height, first.getHeight());
+      Assert.assertEquals(0xFFFFFF, first.getRGB(5, 5) & 0xFFFFFF);
+
+      BufferedImage second = reader.read(1);
+      Assert.assertEquals(3, second.getWidth());
+      Assert.assertEquals(2, second.getHeight());
+      Assert.assertEquals(0x3030FF, second.getRGB(1, 1) & 0xFFFFFF);
+      IIOMetadataNode metadata = (IIOMetadataNode) reader.getImageMetadata(1).getAsTree("javax_imageio_gif_image_1.0");
+      IIOMetadataNode descriptor = (IIOMetadataNode) metadata.getElementsByTagName("ImageDescriptor").item(0);
+      Assert.assertEquals("20", descriptor.getAttribute("imageLeftPosition"));
+      Assert.assertEquals("10", descriptor.getAttribute("imageTopPosition"));
+
+      // A frame with no changes is a single transparent pixel
+      BufferedImage third = reader.read(2);
+      Assert.assertEquals(1, third.getWidth() * third.getHeight());
+      Assert.assertEquals(0, third.getRGB(0, 0) >>> 24);
+   }
+
+   @Test
+   public void testAnimationEndsOnTheResultOfTheSpec() throws Exception {
+      Random random = new Random(17);
+      for (String spec : new String[] {"d20=20", "d6=6", "d12=1"}) {
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         Assert.assertEquals(spec, DieSpec.parse(spec).getResults(),
+                             DieAnimation.writeGif(DieSpec.parse(spec), 30f, 0x3030FF, random, null, out));
+         Assert.assertTrue(spec, out.size() > 0);
+      }
+      // The same seed writes the same animation
+      ByteArrayOutputStream first = new ByteArrayOutputStream();
+      ByteArrayOutputStream second = new ByteArrayOutputStream();
+      DieAnimation.writeGif(DieSpec.parse("d6=6"), 30f, 0x3030FF, new Random(1), null, first);
+      DieAnimation.writeGif(DieSpec.parse("d6=6"), 30f, 0x3030FF, new Random(1), null, second);
+      Assert.assertArrayEquals(first.toByteArray(), second.toByteArray());
+   }
+
+   @Test
+   public void testLevelOfDetailFillsSmallFacesWithTheirAverageColor() throws Exception {
+      Texture texture = ObjLoader.loadTexture("diceMapLettersOnBlack.png");
+      World3D world = new World3D(texture);
+      world.add(new Die(20, ObjLoader.loadObj("d20.obj"), 8f, 20, 0x3030FF, null));
+      FrameBuffer flat = new FrameBuffer();
+      flat.setSize(1200, 900);
+      world.render(flat);
+      // most faces of such a small die are only a few pixels across
+      Assert.assertTrue(world.getLodFaceFraction() > 0.5f);
+
+      FrameBuffer textured = new FrameBuffer();
+      textured.setSize(1200, 900);
+      world.setLevelOfDetail(0, Float.POSITIVE_INFINITY);
+      world.render(textured);
+      Assert.assertEquals(0f, world.getLodFaceFraction(), 0f);
+
+      // the average colors are close to what texturing each pixel gives
+      long difference = 0;
+      int drawnPixels = 0;
+      for (int i = 0; i < (1200 * 900); i++) {
+         int flatRGB = flat.getPixels()[i];
+         int texturedRGB = textured.getPixels()[i];
+         Assert.assertEquals(flatRGB == FrameBuffer.TRANSPARENT_RGB, texturedRGB == FrameBuffer.TRANSPARENT_RGB);
+         if (flatRGB != FrameBuffer.TRANSPARENT_RGB) {
+            drawnPixels++;
+            for (int shift = 0; shift < 24; shift += 8) {
+               difference += Math.abs(((flatRGB >> shift) & 0xFF) - ((texturedRGB >> shift) & 0xFF));
+            }
+         }
+      }
+      Assert.assertTrue(drawnPixels > 50);
+      Assert.assertTrue(difference < (drawnPixels * 3 * 8));
+   }
+
+   @Test
+   public void testQualityGovernorHoldsTheTargetFrameTime() throws Exception {
+      World3D world = new World3D(ObjLoader.loadTexture("diceMapLettersOnBlack.png"));
+      QualityGovernor governor = new QualityGovernor(world, 16f);
+      Assert.assertEquals(0, governor.getLevel());
+      Assert.assertEquals(1f, world.getRenderScale(), 0f);
+
+      // slow frames step the quality down, one level per evaluation
+      for (int i = 0; i < QualityGovernor.EVALUATION_FRAMES; i++) {
+         governor.recordFrame(30_000_000L);
+      }
+      Assert.assertEquals(1, governor.getLevel());
+      for (int i = 0; i < (QualityGovernor.EVALUATION_FRAMES * 10); i++) {
+         governor.recordFrame(30_000_000L);
+      }
+      Assert.assertEquals(QualityGovernor.LEVELS.length - 1, governor.getLevel());
+      Assert.assertEquals(QualityGovernor.LEVELS[governor.getLevel()].renderScale, world.getRenderScale(), 0f);
+      Assert.assertFalse(world.isShadowsEnabled());
+      Assert.assertEquals(30f, governor.getFrameTimePercentile(0.5f), 0.001f);
+
+      // frames that are within the target, but without much room to spare, hold the level
+      for (int i = 0; i < (QualityGovernor.EVALUATION_FRAMES * 2); i++) {
+         governor.recordFrame(12_000_000L);
+      }
+      Assert.assertEquals(QualityGovernor.LEVELS.length - 1, governor.getLevel());
+
+      // fast frames step it back up
+      for (int i = 0; i < QualityGovernor.EVALUATION_FRAMES; i++) {
+         governor.recordFrame(4_000_000L);
+      }
+      Assert.assertEquals(QualityGovernor.LEVELS.length - 2, governor.getLevel());
+      Assert.assertEquals(4f, governor.getFrameTimePercentile(0.1f), 0.001f);
+      Assert.assertEquals(30f, governor.getFrameTimePercentile(1f), 0.001f);
+
+      governor.reset();
+      Assert.assertEquals(0, governor.getLevel());
+      Assert.assertTrue(world.isShadowsEnabled());
+      Assert.assertEquals(Texture.Filtering.TRILINEAR, world.getTextureFiltering());
+   }
+
+   @Test
+   public void testFixedStepRollsAreRepeatable() throws Exception {
+      // The same throw, with the time handed in 60 or 24 times a second, takes the same fixed steps
+      Die[] dice = new Die[2];
+      World3D[] worlds = new World3D[2];
+      for (int i = 0; i < 2; i++) {
+         dice[i] = new Die(20, ObjLoader.loadObj("d20.obj"), 50f, 20, 0x3030FF, null, new Random(1234));
+         worlds[i] = new World3D(ObjLoader.loadTexture("diceMapLettersOnBlack.png"));
+         worlds[i].add(dice[i]);
+      }
+      for (int frame = 0; frame < 300; frame++) {
+         worlds[0].step(1 / 60f);
+         if ((frame % 5) == 4) {
+            // 5 frames at 60 per second are 2 at 24 per second
+            worlds[1].step(1 / 24f);
+            worlds[1].step(1 / 24f);
+            Assert.assertEquals(dice[0].getFrame().location.toString(), dice[1].getFrame().location.toString());
+            Assert.assertEquals(worlds[0].isSettled(), worlds[1].isSettled());
+         }
+      }
+      Assert.assertTrue(worlds[0].isSettled());
+
+      // Interpolated frames start at the first frame, end at the second, and turn evenly between them
+      Frame from = new Frame(new Tuple3(0, 0, 0), new Tuple3(0, 0, 0), new Tuple3(0, 0, 90));
+      Frame to = from.update(1f, new Tuple3(0, 0, 0)).addLocation(new Tuple3(10, 20, 30));
+      Assert.assertSame(from, from.interpolate(to, 0f));
+      Assert.assertSame(to, from.interpolate(to, 1f));
+      Frame halfway = from.interpolate(to, 0.5f);
+      Assert.assertEquals(5f, halfway.location.getX(), 0.001f);
+      Assert.assertEquals(15f, halfway.location.getZ(), 0.001f);
+      Tuple3 turned = halfway.getOrientationTransform().multiply(new Tuple3(1, 0, 0));
+      Assert.assertEquals(Math.cos(Math.toRadians(45)), turned.getX(), 0.001f);
+      Assert.assertEquals(Math.sin(Math.toRadians(45)), turned.getY(), 0.001f);
+   }
+
+   @Test
+   public void testPhysicsStepsDoNotAllocate() throws Exception {
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      Assert.assertTrue(threads.isThreadAllocatedMemorySupported());
+      threads.setThreadAllocatedMemoryEnabled(true);
+      long threadId = Thread.currentThread().getId();
+      for (int roll = 0; roll < 3; roll++) {
+         // The first rolls warm up every path through the physics, the last one is measured
+         World3D world = new World3D(ObjLoader.loadTexture("diceMapLettersOnBlack.png"));
+         world.add(new Die(20, ObjLoader.loadObj("d20.obj"), 50f, 20, 0x3030FF, null, new Random(99)));
+         long allocatedBytes = threads.getThreadAllocatedBytes(threadId);
+         int steps = rollToRest(world);
+         allocatedBytes = threads.getThreadAllocatedBytes(threadId) - allocatedBytes;
+         if (roll == 2) {
+            Assert.assertEquals("bytes allocated over " + steps + " steps", 0, allocatedBytes);
+         }
+      }
+   }
+
+   @Test
+   public void testQuaternionOrientationDoesNotDrift() {
+      // Spin about a fixed axis for a simulated minute, and compare with a single rotation by the whole angle
+      Tuple3 spin = new Tuple3(300, -500, 200);
+      MutableFrame frame = new MutableFrame(new Frame(new Tuple3(0, 0, 0), new Tuple3(0, 0, 0), spin));
+      int steps = 240 * 60;
+      for (int step = 0; step < steps; step++) {
+         frame.update(World3D.FIXED_TIME_STEP_IN_SECONDS, new Tuple3(0, 0, 0));
+      }
+      double totalDegrees = (spin.magnitude() * steps * World3D.FIXED_TIME_STEP_IN_SECONDS) % 360;
+      Matrix3x3 expected = Matrix3x3.getRotationalTransformationAboutVector(spin, totalDegrees);
+      Matrix3x3 actual = frame.toFrame().getOrientationTransform();
+      for (int row = 0; row < 3; row++) {
+         Tuple3 actualRow = new Tuple3(actual.get(row, 0), actual.get(row, 1), actual.get(row, 2));
+         Assert.assertEquals(1, actualRow.magnitude(), 1e-5);
+         for (int column = 0; column < 3; column++) {
+            Assert.assertEquals(expected.get(row, column), actual.get(row, column), 1e-3);
+         }
+      }
+
+      // A matrix converts to the same orientation
+      Quaternion converted = Quaternion.fromMatrix(expected);
+      Assert.assertEquals(1, Math.abs(converted.dotProduct(frame.toFrame().orientation)), 1e-5);
+   }
+
+   @Test
+   public void testRollSimulatorCountsUnsteeredRolls() throws Exception {
+      // A die reads as the result it was aimed at, before it is thrown
+      for (int sides : new int[] {4, 6, 20}) {
+         for (int result = 1; result <= sides; result++) {
+            Die die = new Die(sides, DieLibrary.getModel(sides), 50f, result, null, null, new Random(result));
+            Assert.assertEquals(result, die.getResult());
+         }
+      }
+
+      RollSimulator simulator = new RollSimulator(20, DieLibrary.getModel(20));
+      RollHistogram totals = simulator.run(400, 2, 7, null);
+      Assert.assertEquals(400, totals.getSettledRolls() + totals.getUnsettledRolls());
+      Assert.assertEquals(0, totals.getUnsettledRolls());
+      int resultsSeen = 0;
+      for (int result = 1; result <= 20; result++) {
+         resultsSeen += (totals.getCount(result) > 0) ? 1 : 0;
+      }
+      Assert.assertTrue("only " + resultsSeen + " results came up", resultsSeen > 15);
+
+      // The same seed and workers roll the same results, and histograms merge by adding up
+      RollHistogram again = simulator.run(400, 2, 7, null);
+      again.merge(totals);
+      for (int result = 1; result <= 20; result++) {
+         Assert.assertEquals(2 * totals.getCount(result), again.getCount(result));
+      }
+   }
+
+   @Test
+   public void testTrajectoryLibraryReplaysRelabeledRolls() throws Exception {
+      File file = File.createTempFile("dice", ".dtr");
+      file.deleteOnExit();
+      TrajectoryLibrary.build(file, 1, 50f, 11);
+      TrajectoryLibrary library = TrajectoryLibrary.open(file);
+      Random random = new Random(5);
+      for (int sides : new int[] {6, 20}) {
+         Die die = new Die(sides, DieLibrary.getModel(sides), 50f, 1, null, null, random);
+         World3D world = new World3D(DieLibrary.getTexture());
+         world.add(die);
+         // Every face of these dice can be turned onto every other one
+         for (int result = 1; result <= sides; result++) {
+            Assert.assertNotNull(die.getRelabeling(1, result));
+         }
+         for (int result = 1; result <= sides; result += 3) {
+            Assert.assertTrue(library.replay(die, result, world, random));
+            rollToRest(world);
+            Assert.assertEquals(result, die.getResult());
+         }
+      }
+      // A die of another size can't use the recordings
+      Die die = new Die(20, DieLibrary.getModel(20), 80f, 1, null, null, random);
+      World3D world = new World3D(DieLibrary.getTexture());
+      world.add(die);
+      Assert.assertFalse(library.replay(die, 1, world, random));
+
+      // Snapshots and animations replay the recordings, and fall back to the physics at any other scale
+      for (float scale : new float[] {50f, 30f}) {
+         for (String spec : new String[] {"d20=7", "d6=2"}) {
+            world = new World3D(DieLibrary.getTexture());
+            Assert.assertEquals(spec, DieSpec.parse(spec).getResults(),
+                                DieSnapshot.roll(world, DieSpec.parse(spec), scale, null, random, library).getResult());
+            Assert.assertEquals(spec, DieSpec.parse(spec).getResults(),
+                                DieAnimation.writeGif(DieSpec.parse(spec), scale, 0x3030FF, random, library,
+                                                      new ByteArrayOutputStream()));
+         }
+      }
+   }
+
+   @Test
+   public void testReplayedDiceKeepClearOfEachOther() throws Exception {
+      File file = File.createTempFile("dice", ".dtr");
+      file.deleteOnExit();
+      TrajectoryLibrary.build(file, 1, 50f, 11);
+      TrajectoryLibrary library = TrajectoryLibrary.open(file);
+      Random random = new Random(6);
+      World3D world = new World3D(DieLibrary.getTexture());
+      List<Die> dice = new ArrayList<>();
+      for (int d = 0; d < 4; d++) {
+         Die die = new Die(6, DieLibrary.getModel(6), 50f, 1, null, null, random);
+         world.add(die);
+         dice.add(die);
+         // Every recording starts from the same throw, so each one has to be moved clear of the ones before it
+         Assert.assertTrue(library.replay(die, d + 1, world, random));
+      }
+      // Replaying dice don't collide, so their recorded paths must never meet
+      do {
+         world.step(World3D.FIXED_TIME_STEP_IN_SECONDS);
+         for (int a = 0; a < dice.size(); a++) {
+            for (int b = a + 1; b < dice.size(); b++) {
+               Tuple3 between = dice.get(a).getFrame().location.subtract(dice.get(b).getFrame().location);
+               Assert.assertTrue("dice " + a + " and " + b + " overlap", between.magnitude() > 55);
+            }
+         }
+      } while (!world.isSettled());
+      for (int d = 0; d < dice.size(); d++) {
+         Assert.assertEquals(d + 1, dice.get(d).getResult());
+      }
+   }
+
+   @Test
+   public void testDiceRethrownInPlaceStartApart() {
+      Random random = new Random(4);
+      World3D world = new World3D(DieLibrary.getTexture());
+      List<Die> dice = new ArrayList<>();
+      for (int d = 0; d < 10; d++) {
+         Die die = new Die(6, DieLibrary.getModel(6), 50f, 1, null, null, random);
+         world.add(die);
+         dice.add(die);
+      }
+      rollToRest(world);
+      // Throw every die again, from the same place, without taking any of them out of the world
+      for (Die die : dice) {
+         die.reset(random);
+      }
+      world.step(World3D.FIXED_TIME_STEP_IN_SECONDS);
+      for (int a = 0; a < dice.size(); a++) {
+         for (int b = a + 1; b < dice.size(); b++) {
+            Tuple3 between = dice.get(a).getFrame().location.subtract(dice.get(b).getFrame().location);
+            Assert.assertTrue("dice " + a + " and " + b + " start out together", between.magnitude() > 55);
+         }
+      }
+      rollToRest(world);
+      for (int a = 0; a < dice.size(); a++) {
+         for (int b = a + 1; b < dice.size(); b++) {
+            Tuple3 between = dice.get(a).getFrame().location.subtract(dice.get(b).getFrame().location);
+            Assert.assertTrue("dice " + a + " and " + b + " overlap", between.magnitude() > 55);
+         }
+      }
+   }
+
+   @Test
+   public void testDiceBounceOffEachOther() {
+      Random random = new Random(3);
+      World3D world = new World3D(DieLibrary.getTexture());
+      List<Die> dice = new ArrayList<>();
+      for (int d = 0; d < 10; d++) {
+         Die die = new Die(6, DieLibrary.getModel(6), 50f, 1, null, null, random);
+         die.reset(random);
+         world.add(die);
+         dice.add(die);
+      }
+      rollToRest(world);
+      // Two cubes that don't overlap have their centers at least an edge (57.7 pixels at this scale) apart
+      for (int a = 0; a < dice.size(); a++) {
+         for (int b = a + 1; b < dice.size(); b++) {
+            Tuple3 between = dice.get(a).getFrame().location.subtract(dice.get(b).getFrame().location);
+            Assert.assertTrue("dice " + a + " and " + b + " overlap", between.magnitude() > 55);
+         }
+      }
+   }
+
+   @Test
+   public void testSettledDiceLieOnAFace() {
+      Random random = new Random(8);
+      for (int sides : TrajectoryLibrary.SIDES) {
+         for (int roll = 0; roll < 10; roll++) {
+            ObjData mesh = DieLibrary.getModel(sides);
+            Die die = new Die(sides, mesh, 50f, 1, null, null, random);
+            World3D world = new World3D(DieLibrary.getTexture());
+            world.add(die);
+            rollToRest(world);
+            // Only the vertices near the floor are ever looked at, so check them all: the lowest is on the floor
+            // (which is at -100), and at least 3 of them are within 3 pixels of it (the 2 pixels that count as
+            // touching the floor, before the die is lifted as much as another pixel out of it)
+            int vertexCount = mesh.getVerts().size();
+            float[] x = new float[vertexCount];
+            float[] y = new float[vertexCount];
+            float[] z = new float[vertexCount];
+            die.positionVertices(die.getFrame(), x, y, z);
+            float lowestZ = Float.MAX_VALUE;
+            for (float vertexZ : z) {
+               lowestZ = Math.min(lowestZ, vertexZ);
+            }
+            int onFloor = 0;
+            for (float vertexZ : z) {
+               if (vertexZ < (lowestZ + 3)) {
+                  onFloor++;
+               }
+            }
+            Assert.assertEquals("d" + sides + " roll " + roll, -100, lowestZ, 1);
+            Assert.assertTrue("d" + sides + " roll " + roll, onFloor > 2);
+         }
+      }
+   }
+
+   /*
+    * Steps the world at the fixed rate until every model in it has come to rest, which must take no more than
+    * 10,000 steps (about 42 seconds of simulated time). Nothing is allocated along the way. It always takes at least
+    * one step, since a world only notices that a model it had settled with was thrown again once it steps.
+    * @return the number of steps taken
+    */
+   private static int rollToRest(World3D world) {
+      int steps = 0;
+      do {
+         world.step(World3D.FIXED_TIME_STEP_IN_SECONDS);
+         steps++;
+      } while (!world.isSettled() && (steps < 10_000));
+      Assert.assertTrue(world.isSettled());
+      return steps;
+   }
 }
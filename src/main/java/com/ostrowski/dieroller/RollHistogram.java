@@ -0,0 +1,102 @@
+package com.ostrowski.dieroller;
+
+import java.util.Arrays;
+
+/**
+ * How many times each result of a die came up over a number of rolls, and how many rolls never came to rest.
+ * <p>
+ * Histograms of the same die merge by adding up their counts, so separate workers (or separate runs) each
+ * count their own rolls, and are combined afterwards. A histogram isn't synchronized: each one should only
+ * be changed by one thread at a time.
+ */
+public class RollHistogram
+{
+   private final long[] counts;
+   private       long   unsettledRolls = 0;
+
+   public RollHistogram(int sides) {
+      counts = new long[sides];
+   }
+
+   public int getSides() {
+      return counts.length;
+   }
+
+   /** Counts a roll that came to rest showing the result (from 1 to the number of sides). */
+   public void record(int result) {
+      counts[result - 1]++;
+   }
+
+   /** Counts a roll that never came to rest, so it has no result. */
+   public void recordUnsettled() {
+      unsettledRolls++;
+   }
+
+   public long getCount(int result) {
+      return counts[result - 1];
+   }
+
+   /** @return the number of rolls that came to rest, and so have a result */
+   public long getSettledRolls() {
+      long rolls = 0;
+      for (long count : counts) {
+         rolls += count;
+      }
+      return rolls;
+   }
+
+   public long getUnsettledRolls() {
+      return unsettledRolls;
+   }
+
+   /** Adds the other histogram's counts to this one's. */
+   public void merge(RollHistogram other) {
+      if (other.counts.length != counts.length) {
+         throw new IllegalArgumentException("can't merge a d" + other.counts.length + " histogram into a d" + counts.length);
+      }
+      for (int i = 0; i < counts.length; i++) {
+         counts[i] += other.counts[i];
+      }
+      unsettledRolls += other.unsettledRolls;
+   }
+
+   public void clear() {
+      Arrays.fill(counts, 0);
+      unsettledRolls = 0;
+   }
+
+   public RollHistogram copy() {
+      RollHistogram copy = new RollHistogram(counts.length);
+      copy.merge(this);
+      return copy;
+   }
+
+   /**
+    * @return Pearson's chi-squared statistic of the settled rolls, against a fair die (one less than the number of
+    *         sides is its degrees of freedom). For a fair d20, 30.1 is exceeded by only 5% of histograms; for a d6, 11.1.
+    */
+   public double getChiSquared() {
+      long rolls = getSettledRolls();
+      if (rolls == 0) {
+         return 0;
+      }
+      double expected = (double) rolls / counts.length;
+      double chiSquared = 0;
+      for (long count : counts) {
+         chiSquared += ((count - expected) * (count - expected)) / expected;
+      }
+      return chiSquared;
+   }
+
+   @Override
+   public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("d").append(counts.length).append(": ").append(getSettledRolls()).append(" rolls {");
+      for (int i = 0; i < counts.length; i++) {
+         sb.append((i == 0) ? "" : ", ").append(i + 1).append('=').append(counts[i]);
+      }
+      sb.append("}, unsettled=").append(unsettledRolls);
+      sb.append(String.format(", chi-squared=%.2f", getChiSquared()));
+      return sb.toString();
+   }
+}
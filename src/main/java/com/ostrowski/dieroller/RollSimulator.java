@@ -0,0 +1,177 @@
+package com.ostrowski.dieroller;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.ostrowski.graphics.World3D;
+import com.ostrowski.graphics.model.ObjData;
+import com.ostrowski.graphics.model.ObjLoader;
+
+/**
+ * Rolls a die over and over, without any window and with nothing steering the results, to find out how
+ * fair the simulated die is.
+ * <p>
+ * The rolls are split between worker threads (one per core, by default). Each worker owns its own World3D,
+ * Die and Random, so the workers share nothing while they roll. A worker rethrows the same die for every roll,
+ * steps it in the World3D's fixed steps until it comes to rest, and counts the result that is turned up.
+ * Once warmed up, a roll allocates nothing. Every BATCH_ROLLS rolls, a worker adds its counts to the totals,
+ * and the thread that started the run hands a copy of the totals, and the rate, to the ProgressListener.
+ * <p>
+ * Each worker's Random is seeded from the seed of the run, so a run with the same seed and the same number
+ * of workers counts exactly the same results.
+ */
+public class RollSimulator
+{
+   /* How many rolls a worker makes between adding its counts to the totals */
+   public static final int  BATCH_ROLLS            = 256;
+   public static final long REPORT_INTERVAL_MILLIS = 1000;
+   /* Rolls that still haven't come to rest after this many steps are counted as unsettled */
+   public static final int  MAX_STEPS              = Math.round(DieSnapshot.MAX_SIMULATED_SECONDS /
+                                                                World3D.FIXED_TIME_STEP_IN_SECONDS);
+   /* The size the dice are rolled at, which is the same size the DieShell draws them */
+   public static final float SCALE                 = 50f;
+
+   /**
+    * Told about the progress of a run, from the thread that started the run.
+    */
+   public interface ProgressListener
+   {
+      /**
+       * @param totals         a copy of the counts of all the rolls so far
+       * @param rollsPerSecond the rate of the whole run so far
+       */
+      void progress(RollHistogram totals, double rollsPerSecond);
+   }
+
+   private final int     sides;
+   private final ObjData data;
+
+   /**
+    * @param data the mesh of the die, which isn't changed (each worker rolls its own copy)
+    */
+   public RollSimulator(int sides, ObjData data) {
+      this.sides = sides;
+      this.data = data;
+   }
+
+   /**
+    * Makes the given number of rolls on all the available cores.
+    */
+   public RollHistogram run(long rolls, long seed, ProgressListener listener) throws InterruptedException {
+      return run(rolls, Runtime.getRuntime().availableProcessors(), seed, listener);
+   }
+
+   /**
+    * Makes the given number of rolls, split between the given number of worker threads, and returns the counts
+    * of all of them. The listener (which may be null) is told the progress about once every REPORT_INTERVAL_MILLIS.
+    */
+   public RollHistogram run(long rolls, int workers, long seed, ProgressListener listener) throws InterruptedException {
+      RollHistogram totals = new RollHistogram(sides);
+      AtomicReference<Throwable> failure = new AtomicReference<>();
+      Random seeds = new Random(seed);
+      Thread[] threads = new Thread[workers];
+      for (int w = 0; w < workers; w++) {
+         long workerRolls = (rolls / workers) + ((w < (rolls % workers)) ? 1 : 0);
+         Worker worker = new Worker(workerRolls, new Random(seeds.nextLong()), totals);
+         threads[w] = new Thread(() -> {
+            try {
+               worker.run();
+            } catch (Throwable e) {
+               failure.compareAndSet(null, e);
+            }
+         }, "RollSimulator-" + w);
+         threads[w].setDaemon(true);
+      }
+
+      long startNanos = System.nanoTime();
+      for (Thread thread : threads) {
+         thread.start();
+      }
+      for (Thread thread : threads) {
+         while (thread.isAlive()) {
+            thread.join(REPORT_INTERVAL_MILLIS);
+            if (thread.isAlive()) {
+               report(totals, startNanos, listener);
+            }
+         }
+      }
+      if (failure.get() != null) {
+         throw new IllegalStateException("a roll failed", failure.get());
+      }
+      report(totals, startNanos, listener);
+      return totals;
+   }
+
+   private static void report(RollHistogram totals, long startNanos, ProgressListener listener) {
+      if (listener == null) {
+         return;
+      }
+      RollHistogram copy;
+      synchronized (totals) {
+         copy = totals.copy();
+      }
+      double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+      long rolls = copy.getSettledRolls() + copy.getUnsettledRolls();
+      listener.progress(copy, (seconds > 0) ? (rolls / seconds) : 0);
+   }
+
+   private class Worker
+   {
+      private final long          rolls;
+      private final Random        random;
+      private final RollHistogram totals;
+      private final RollHistogram batch = new RollHistogram(sides);
+      private final Die           die;
+      private final World3D       world;
+
+      Worker(long rolls, Random random, RollHistogram totals) {
+         this.rolls = rolls;
+         this.random = random;
+         this.totals = totals;
+         die = new Die(sides, data.clone(), SCALE, 1, null, null, random);
+         world = new World3D(DieLibrary.getTexture());
+         world.add(die);
+      }
+
+      void run() {
+         for (long roll = 0; roll < rolls; roll++) {
+            die.reset(random);
+            int steps = 0;
+            do {
+               world.step(World3D.FIXED_TIME_STEP_IN_SECONDS);
+            } while (!world.isSettled() && (++steps < MAX_STEPS));
+
+            if (world.isSettled()) {
+               batch.record(die.getResult());
+            }
+            else {
+               batch.recordUnsettled();
+            }
+            if ((((roll + 1) % BATCH_ROLLS) == 0) || (roll == (rolls - 1))) {
+               synchronized (totals) {
+                  totals.merge(batch);
+               }
+               batch.clear();
+            }
+         }
+      }
+   }
+
+   /**
+    * Usage: RollSimulator {sides} {rolls} [workers] [OBJ resource, such as d20.obj]
+    */
+   public static void main(String[] args) throws Exception {
+      if (args.length < 2) {
+         System.out.println("Usage: RollSimulator {sides} {rolls} [workers] [OBJ resource, such as d20.obj]");
+         return;
+      }
+      int sides = Integer.parseInt(args[0]);
+      long rolls = Long.parseLong(args[1]);
+      int workers = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+      ObjData data = (args.length > 3) ? ObjLoader.loadObj(args[3]) : DieLibrary.getModel(sides);
+      RollSimulator simulator = new RollSimulator(sides, data);
+      RollHistogram totals = simulator.run(rolls, workers, System.nanoTime(),
+                                           (progress, rate) -> System.out.printf("%.0f rolls/s  %s%n", rate, progress));
+      System.out.println(totals);
+   }
+}
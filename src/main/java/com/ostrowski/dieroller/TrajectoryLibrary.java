@@ -0,0 +1,210 @@
+package com.ostrowski.dieroller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.ostrowski.graphics.Trajectory;
+import com.ostrowski.graphics.World3D;
+import com.ostrowski.graphics.model.Quaternion;
+
+/**
+ * Rolls recorded ahead of time, for each kind of die and each result, which a Die replays instead of running
+ * its physics, so animating a roll costs next to nothing.
+ * <p>
+ * The library is built once, by rolling dice without steering them, and filing each roll under the result it
+ * came to rest on. It is opened by memory mapping the file, so the poses are never copied onto the heap, and
+ * only the pages of the rolls actually replayed are ever read. A roll for any result can be replayed from the
+ * recording of any other result that the die's shape has a symmetry between (see Die.getRelabeling()), so a
+ * few recordings of each result give every result plenty of different looking rolls.
+ * <p>
+ * The file is a header (MAGIC, the scale of the dice, and the number of trajectories), then a table with the
+ * sides, result, pose count and offset of each trajectory, and then the poses, in Trajectory's format.
+ */
+public class TrajectoryLibrary
+{
+   public static final int   MAGIC             = 0x44545231;   // "DTR1"
+   /* The dice that are recorded (the percentile mesh is left out, since its key isn't its number of sides) */
+   public static final int[] SIDES             = {4, 6, 8, 10, 12, 20};
+   private static final int  HEADER_BYTES      = 4 + 4 + 4;
+   private static final int  TABLE_ENTRY_BYTES = 2 + 2 + 4 + 4;
+   /* The most rolls made to find the recordings of a die's results, for each recording asked for */
+   private static final int  ROLLS_PER_RECORDING = 8;
+
+   private final float                    scale;
+   /* The trajectories of each die, by its sides, and by its sides and result */
+   private final Map<Integer, Trajectory[]>   bySides  = new HashMap<>();
+   private final Map<Integer, Trajectory[][]> byResult = new HashMap<>();
+
+   private TrajectoryLibrary(ByteBuffer buffer) throws IOException {
+      if (buffer.getInt(0) != MAGIC) {
+         throw new IOException("not a trajectory library");
+      }
+      scale = buffer.getFloat(4);
+      int count = buffer.getInt(8);
+      Map<Integer, List<Trajectory>> lists = new HashMap<>();
+      for (int t = 0; t < count; t++) {
+         int entry = HEADER_BYTES + (t * TABLE_ENTRY_BYTES);
+         int sides = buffer.getShort(entry);
+         int result = buffer.getShort(entry + 2);
+         Trajectory trajectory = new Trajectory(buffer, buffer.getInt(entry + 8), buffer.getInt(entry + 4), result);
+         lists.computeIfAbsent(sides, k -> new ArrayList<>()).add(trajectory);
+      }
+      for (Map.Entry<Integer, List<Trajectory>> entry : lists.entrySet()) {
+         int sides = entry.getKey();
+         bySides.put(sides, entry.getValue().toArray(new Trajectory[0]));
+         Trajectory[][] results = new Trajectory[sides][];
+         for (int r = 0; r < sides; r++) {
+            List<Trajectory> ofResult = new ArrayList<>();
+            for (Trajectory trajectory : entry.getValue()) {
+               if (trajectory.getResult() == (r + 1)) {
+                  ofResult.add(trajectory);
+               }
+            }
+            results[r] = ofResult.toArray(new Trajectory[0]);
+         }
+         byResult.put(sides, results);
+      }
+   }
+
+   /**
+    * Memory maps a library written by build().
+    */
+   public static TrajectoryLibrary open(File file) throws IOException {
+      try (RandomAccessFile in = new RandomAccessFile(file, "r");
+           FileChannel channel = in.getChannel()) {
+         // The mapping stays valid after the channel is closed
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         return new TrajectoryLibrary(buffer);
+      }
+   }
+
+   /** @return the scale of the dice that were recorded, which is the only scale the rolls can be replayed at */
+   public float getScale() {
+      return scale;
+   }
+
+   /** @return the number of rolls recorded for the die that came to rest on the result */
+   public int getTrajectoryCount(int sides, int result) {
+      Trajectory[][] results = byResult.get(sides);
+      return ((results == null) || (result < 1) || (result > results.length)) ? 0 : results[result - 1].length;
+   }
+
+   /**
+    * Starts the die replaying a recorded roll, chosen at random, that comes to rest showing the result.
+    * The roll is chosen from all the recordings of the die that can be relabeled as the result, and is moved
+    * sideways if it would run into another die replaying a roll in the world (see World3D.replay()).
+    *
+    * @return false if there is no such recording (or the die isn't the recorded scale, or the roll can't be kept
+    *         clear of the other ones), in which case the die is left to roll with its physics
+    */
+   public boolean replay(Die die, int result, World3D world, Random random) {
+      Trajectory[] trajectories = bySides.get(die.getSides());
+      if ((trajectories == null) || (die.getScale() != scale) || (result < 1) || (result > die.getSides())) {
+         return false;
+      }
+      Trajectory trajectory = trajectories[random.nextInt(trajectories.length)];
+      Quaternion relabeling = die.getRelabeling(trajectory.getResult(), result);
+      if (relabeling == null) {
+         // The die's shape doesn't let that recording be relabeled, so use one of this result's own
+         Trajectory[] ofResult = byResult.get(die.getSides())[result - 1];
+         if (ofResult.length == 0) {
+            return false;
+         }
+         trajectory = ofResult[random.nextInt(ofResult.length)];
+         relabeling = Quaternion.IDENTITY;
+      }
+      return world.replay(die, trajectory, relabeling);
+   }
+
+   /**
+    * Records rolls of each of the SIDES dice, at the given scale, until every result has the given number of
+    * recordings (or ROLLS_PER_RECORDING rolls have been made for each one asked for), and writes them to the file.
+    */
+   public static void build(File file, int recordingsPerResult, float scale, long seed) throws IOException {
+      Random random = new Random(seed);
+      List<int[]> table = new ArrayList<>();   // {sides, result, poseCount}
+      List<ByteBuffer> recordings = new ArrayList<>();
+      int maxSteps = Math.round(DieSnapshot.MAX_SIMULATED_SECONDS / World3D.FIXED_TIME_STEP_IN_SECONDS);
+      ByteBuffer poses = ByteBuffer.allocate(((maxSteps / Trajectory.STEPS_PER_POSE) + 2) * Trajectory.POSE_BYTES);
+      for (int sides : SIDES) {
+         Die die = new Die(sides, DieLibrary.getModel(sides), scale, 1, null, null, random);
+         World3D world = new World3D(DieLibrary.getTexture());
+         world.add(die);
+         int[] recorded = new int[sides];
+         int missing = sides * recordingsPerResult;
+         for (int roll = 0; (roll < (sides * recordingsPerResult * ROLLS_PER_RECORDING)) && (missing > 0); roll++) {
+            die.reset(random);
+            poses.clear();
+            Trajectory.putPose(poses, die.getFrame());
+            int steps = 0;
+            do {
+               world.step(World3D.FIXED_TIME_STEP_IN_SECONDS);
+               steps++;
+               if (((steps % Trajectory.STEPS_PER_POSE) == 0) || world.isSettled()) {
+                  Trajectory.putPose(poses, die.getFrame());
+               }
+            } while (!world.isSettled() && (steps < maxSteps));
+
+            int result = die.getResult();
+            if (world.isSettled() && (recorded[result - 1] < recordingsPerResult)) {
+               recorded[result - 1]++;
+               missing--;
+               poses.flip();
+               ByteBuffer copy = ByteBuffer.allocate(poses.remaining());
+               copy.put(poses).flip();
+               recordings.add(copy);
+               table.add(new int[] {sides, result, copy.remaining() / Trajectory.POSE_BYTES});
+            }
+         }
+      }
+
+      int offset = HEADER_BYTES + (table.size() * TABLE_ENTRY_BYTES);
+      ByteBuffer header = ByteBuffer.allocate(offset);
+      header.putInt(MAGIC).putFloat(scale).putInt(table.size());
+      for (int t = 0; t < table.size(); t++) {
+         header.putShort((short) table.get(t)[0]).putShort((short) table.get(t)[1]).putInt(table.get(t)[2]).putInt(offset);
+         offset += recordings.get(t).remaining();
+      }
+      header.flip();
+      try (RandomAccessFile out = new RandomAccessFile(file, "rw");
+           FileChannel channel = out.getChannel()) {
+         channel.truncate(0);
+         channel.write(header);
+         for (ByteBuffer recording : recordings) {
+            channel.write(recording);
+         }
+      }
+   }
+
+   /**
+    * Usage: TrajectoryLibrary {output file} [recordings per result] [scale]
+    */
+   public static void main(String[] args) throws IOException {
+      if (args.length < 1) {
+         System.out.println("Usage: TrajectoryLibrary {output file} [recordings per result] [scale]");
+         return;
+      }
+      int recordingsPerResult = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+      float scale = (args.length > 2) ? Float.parseFloat(args[2]) : RollSimulator.SCALE;
+      File file = new File(args[0]);
+      build(file, recordingsPerResult, scale, System.nanoTime());
+      TrajectoryLibrary library = open(file);
+      for (int sides : SIDES) {
+         StringBuilder sb = new StringBuilder("d" + sides + ":");
+         for (int result = 1; result <= sides; result++) {
+            sb.append(' ').append(result).append('=').append(library.getTrajectoryCount(sides, result));
+         }
+         System.out.println(sb);
+      }
+      System.out.println(file.length() + " bytes");
+   }
+}
@@ -0,0 +1,421 @@
+package com.ostrowski.graphics;
+
+import java.util.List;
+
+import com.ostrowski.graphics.model.MutableTuple3;
+import com.ostrowski.graphics.model.Tuple3;
+
+/**
+ * Finds the models of a world that have run into each other, and bounces them apart.
+ * <p>
+ * The broad phase is a sweep and prune along X: each model is bounded by a sphere about its origin, and the models
+ * are kept sorted by where their spheres start. Only models whose spheres overlap along X are tested any further.
+ * The order is kept from one step to the next, when it has hardly changed, so the insertion sort that keeps it
+ * sorted takes close to linear time, and the dice of a big roll, spread across the floor, are only ever tested
+ * against their neighbors.
+ * <p>
+ * The narrow phase treats each model as the convex hull of its vertices, and finds whether two of them overlap
+ * with Minkowski portal refinement (Gary Snethen's XenoCollide). The hulls overlap when their Minkowski difference
+ * (every point of one, minus every point of the other) holds the origin. Starting from a point known to be inside
+ * it (the difference of the models' origins), a portal (a triangle on its surface) is found that the ray towards
+ * the origin passes through, and refined until it lies on the surface. The portal then gives the normal to push
+ * the models apart along, and how far. Nothing but the farthest vertex of each model in a given direction is ever
+ * needed, so edges that cross are found just as well as corners that poke in, and each of those is found by
+ * climbing the model's hull (see MeshHull), rather than by positioning all of its vertices.
+ * <p>
+ * All of the working storage is kept between steps, so once the models are all added, colliding allocates nothing.
+ */
+final class Collider
+{
+   /* How much of the speed that two models run into each other at they bounce apart with */
+   static final         float RESTITUTION      = 0.5f;
+   /* The most that friction can push back against the sliding of two models, as a fraction of the bounce */
+   static final         float FRICTION         = 0.3f;
+   /* Vertices this close to the contact lie on it, just as vertices this close to the floor lie on the floor */
+   private static final float CONTACT_DISTANCE = 2;
+   /* A model can come to rest on top of another one where the normal of the contact is this nearly straight up */
+   private static final float RESTING_NORMAL_Z = 0.9f;
+   /* The portal is on the surface once the next support point is less than this much (in pixels) beyond it */
+   private static final float PORTAL_TOLERANCE = 0.01f;
+   private static final int   MAX_ITERATIONS   = 32;
+   private static final float RADIANS_PER_DEGREE = (float) (Math.PI / 180);
+
+   /* The indexes of the models, sorted by minX */
+   private int[]     order      = new int[0];
+   private float[]   minX       = new float[0];
+   private float[]   maxX       = new float[0];
+   /* true once the model has been got ready for contact queries in this step */
+   private boolean[] prepared   = new boolean[0];
+
+   // The points of the Minkowski difference that make up the portal, and the one found beyond it
+   private SupportPoint v0 = new SupportPoint();
+   private SupportPoint v1 = new SupportPoint();
+   private SupportPoint v2 = new SupportPoint();
+   private SupportPoint v3 = new SupportPoint();
+   private SupportPoint v4 = new SupportPoint();
+   private final MutableTuple3 normal  = new MutableTuple3();
+   private final MutableTuple3 edge1   = new MutableTuple3();
+   private final MutableTuple3 edge2   = new MutableTuple3();
+   private final MutableTuple3 cross   = new MutableTuple3();
+   private final MutableTuple3 contact = new MutableTuple3();
+   private       float         depth;
+
+   /* A point of the Minkowski difference b - a, and the vertices of a and b it is the difference of */
+   private static final class SupportPoint
+   {
+      final MutableTuple3 v   = new MutableTuple3();
+      final MutableTuple3 onA = new MutableTuple3();
+      final MutableTuple3 onB = new MutableTuple3();
+   }
+
+   /**
+    * Bounces apart every pair of models that have run into each other.
+    */
+   void collide(List<Model> models, Tuple3 acceleration) {
+      int count = models.size();
+      if (count < 2) {
+         return;
+      }
+      if (order.length != count) {
+         order = new int[count];
+         for (int m = 0; m < count; m++) {
+            order[m] = m;
+         }
+         minX = new float[count];
+         maxX = new float[count];
+         prepared   = new boolean[count];
+      }
+      for (int m = 0; m < count; m++) {
+         Model model = models.get(m);
+         float x = model.state.location.getX();
+         minX[m] = x - model.boundingRadius;
+         maxX[m] = x + model.boundingRadius;
+         prepared[m] = false;
+      }
+      for (int i = 1; i < count; i++) {
+         int m = order[i];
+         int j = i - 1;
+         while ((j >= 0) && (minX[order[j]] > minX[m])) {
+            order[j + 1] = order[j];
+            j--;
+         }
+         order[j + 1] = m;
+      }
+
+      for (int i = 0; i < count; i++) {
+         int a = order[i];
+         for (int j = i + 1; (j < count) && (minX[order[j]] <= maxX[a]); j++) {
+            int b = order[j];
+            collide(models.get(a), a, models.get(b), b, acceleration);
+         }
+      }
+   }
+
+   private void collide(Model a, int aIndex, Model b, int bIndex, Tuple3 acceleration) {
+      if ((!a.hasMovedInLastStep() && !b.hasMovedInLastStep()) || (a.isReplaying() && b.isReplaying())) {
+         // Models that stayed at rest were pulled apart before they came to rest, and recordings aren't changed
+         // (World3D.replay() only starts a recording whose path keeps clear of the other ones being replayed)
+         return;
+      }
+      float dx = a.state.location.getX() - b.state.location.getX();
+      float dy = a.state.location.getY() - b.state.location.getY();
+      float dz = a.state.location.getZ() - b.state.location.getZ();
+      float reach = a.boundingRadius + b.boundingRadius;
+      if (((dx * dx) + (dy * dy) + (dz * dz)) > (reach * reach)) {
+         return;
+      }
+
+      if (!prepared[aIndex]) {
+         a.prepareContactQueries();
+         prepared[aIndex] = true;
+      }
+      if (!prepared[bIndex]) {
+         b.prepareContactQueries();
+         prepared[bIndex] = true;
+      }
+      if (!findContact(a, b)) {
+         return;
+      }
+      float normalX = normal.getX();
+      float normalY = normal.getY();
+      float normalZ = normal.getZ();
+
+      // How much of the collision each model takes: a model replaying a recording can't be pushed, and neither can
+      // a model at rest on the floor that is pushed down into it. Otherwise, the models weigh the same.
+      float inverseMassOfA = 1;
+      float inverseMassOfB = 1;
+      if (b.isReplaying() || (!b.isMoving() && (normalZ > RESTING_NORMAL_Z))) {
+         inverseMassOfB = 0;
+      }
+      else if (a.isReplaying() || (!a.isMoving() && (normalZ < -RESTING_NORMAL_Z))) {
+         inverseMassOfA = 0;
+      }
+      float shareOfA = inverseMassOfA / (inverseMassOfA + inverseMassOfB);
+      float shareOfB = 1 - shareOfA;
+
+      // The velocity of each model at the point of contact is its velocity, plus its spin about its origin
+      // (the cross product of the spin, in radians per second, and the point from the origin)
+      float armAX = contact.getX() - a.state.location.getX();
+      float armAY = contact.getY() - a.state.location.getY();
+      float armAZ = contact.getZ() - a.state.location.getZ();
+      float armBX = contact.getX() - b.state.location.getX();
+      float armBY = contact.getY() - b.state.location.getY();
+      float armBZ = contact.getZ() - b.state.location.getZ();
+      MutableTuple3 spinA = a.state.rotationalAxis;
+      MutableTuple3 spinB = b.state.rotationalAxis;
+      float relativeX = (a.state.velocity.getX() + (((spinA.getY() * armAZ) - (spinA.getZ() * armAY)) * RADIANS_PER_DEGREE)) -
+                        (b.state.velocity.getX() + (((spinB.getY() * armBZ) - (spinB.getZ() * armBY)) * RADIANS_PER_DEGREE));
+      float relativeY = (a.state.velocity.getY() + (((spinA.getZ() * armAX) - (spinA.getX() * armAZ)) * RADIANS_PER_DEGREE)) -
+                        (b.state.velocity.getY() + (((spinB.getZ() * armBX) - (spinB.getX() * armBZ)) * RADIANS_PER_DEGREE));
+      float relativeZ = (a.state.velocity.getZ() + (((spinA.getX() * armAY) - (spinA.getY() * armAX)) * RADIANS_PER_DEGREE)) -
+                        (b.state.velocity.getZ() + (((spinB.getX() * armBY) - (spinB.getY() * armBX)) * RADIANS_PER_DEGREE));
+      float closingSpeed = (relativeX * normalX) + (relativeY * normalY) + (relativeZ * normalZ);
+      float impulseX = 0;
+      float impulseY = 0;
+      float impulseZ = 0;
+      if (closingSpeed < 0) {
+         // The impulse that bounces the points of contact apart, with the spin it causes slowing them down as well,
+         // which keeps a collision from ever adding energy (see Model.collide() for the spin it causes)
+         float turning = (float) Math.toRadians(4 / Model.rotationalInteria);
+         float bounce = (-(1 + RESTITUTION) * closingSpeed) /
+                        getEffectiveInverseMass(normalX, normalY, normalZ, armAX, armAY, armAZ, armBX, armBY, armBZ,
+                                                inverseMassOfA, inverseMassOfB, turning);
+         impulseX = normalX * bounce;
+         impulseY = normalY * bounce;
+         impulseZ = normalZ * bounce;
+         // and friction, which stops the points sliding across each other, as far as it is strong enough to
+         float slideX = relativeX - (normalX * closingSpeed);
+         float slideY = relativeY - (normalY * closingSpeed);
+         float slideZ = relativeZ - (normalZ * closingSpeed);
+         float slideSpeed = (float) Math.sqrt((slideX * slideX) + (slideY * slideY) + (slideZ * slideZ));
+         if (slideSpeed > 1e-3f) {
+            slideX /= slideSpeed;
+            slideY /= slideSpeed;
+            slideZ /= slideSpeed;
+            float friction = Math.min(slideSpeed / getEffectiveInverseMass(slideX, slideY, slideZ, armAX, armAY, armAZ,
+                                                                           armBX, armBY, armBZ, inverseMassOfA,
+                                                                           inverseMassOfB, turning),
+                                      FRICTION * bounce);
+            impulseX -= slideX * friction;
+            impulseY -= slideY * friction;
+            impulseZ -= slideZ * friction;
+         }
+      }
+      Model resting = null;
+      if ((normalZ > RESTING_NORMAL_Z) && !b.isMoving() && liesFlatOn(a, b, 1)) {
+         resting = a;
+      }
+      else if ((normalZ < -RESTING_NORMAL_Z) && !a.isMoving() && liesFlatOn(b, a, -1)) {
+         resting = b;
+      }
+      if (inverseMassOfA > 0) {
+         a.collide(normalX * depth * shareOfA, normalY * depth * shareOfA, normalZ * depth * shareOfA,
+                   impulseX * inverseMassOfA, impulseY * inverseMassOfA, impulseZ * inverseMassOfA,
+                   contact.getX(), contact.getY(), contact.getZ());
+      }
+      if (inverseMassOfB > 0) {
+         b.collide(-normalX * depth * shareOfB, -normalY * depth * shareOfB, -normalZ * depth * shareOfB,
+                   -impulseX * inverseMassOfB, -impulseY * inverseMassOfB, -impulseZ * inverseMassOfB,
+                   contact.getX(), contact.getY(), contact.getZ());
+      }
+      if (resting != null) {
+         resting.stopIfStill(acceleration);
+      }
+   }
+
+   /*
+    * @return how much the speed of the points of contact along the direction changes, for each unit of impulse
+    *         along it: from the models' masses, and from the spin it causes about their origins
+    */
+   private static float getEffectiveInverseMass(float x, float y, float z,
+                                                float armAX, float armAY, float armAZ,
+                                                float armBX, float armBY, float armBZ,
+                                                float inverseMassOfA, float inverseMassOfB, float turning) {
+      float torqueAX = (armAY * z) - (armAZ * y);
+      float torqueAY = (armAZ * x) - (armAX * z);
+      float torqueAZ = (armAX * y) - (armAY * x);
+      float torqueBX = (armBY * z) - (armBZ * y);
+      float torqueBY = (armBZ * x) - (armBX * z);
+      float torqueBZ = (armBX * y) - (armBY * x);
+      return inverseMassOfA * (1 + (turning * ((torqueAX * torqueAX) + (torqueAY * torqueAY) + (torqueAZ * torqueAZ)))) +
+             inverseMassOfB * (1 + (turning * ((torqueBX * torqueBX) + (torqueBY * torqueBY) + (torqueBZ * torqueBZ))));
+   }
+
+   /*
+    * Finds whether the convex hulls of the models overlap, by Minkowski portal refinement. If they do,
+    * leaves the unit normal that a is pushed out of b along in normal, how far it has to go in depth, and the point
+    * they touch at in contact.
+    */
+   private boolean findContact(Model a, Model b) {
+      // A point inside the difference, which the ray to the origin starts from
+      v0.onA.set(a.state.location);
+      v0.onB.set(b.state.location);
+      v0.v.set(v0.onB).subtract(v0.onA);
+      if (v0.v.dotProduct(v0.v) < 1e-6f) {
+         // The origins are at the same place, so any way out is as good as any other
+         v0.v.set(1e-3f, 0, 0);
+      }
+
+      // Find the first two corners of the portal: the support point towards the origin, and one beside it
+      normal.set(v0.v).multiply(-1);
+      support(a, b, normal, v1);
+      if (v1.v.dotProduct(normal) <= 0) {
+         return false;
+      }
+      normal.setCrossProduct(v1.v, v0.v);
+      if (normal.dotProduct(normal) < 1e-12f) {
+         // The origin is on the line from v0 to v1, so the ray leaves through v1, pointing from b's origin to a's
+         normal.set(v1.v).subtract(v0.v);
+         normal.divide((float) normal.magnitude());
+         depth = v1.v.dotProduct(normal);
+         contact.set(v1.onA).add(v1.onB).multiply(0.5f);
+         return true;
+      }
+      support(a, b, normal, v2);
+      if (v2.v.dotProduct(normal) <= 0) {
+         return false;
+      }
+      setTriangleNormal(v0, v1, v2);
+      if (normal.dotProduct(v0.v) > 0) {
+         // keep the portal facing the origin
+         SupportPoint swap = v1;
+         v1 = v2;
+         v2 = swap;
+         normal.multiply(-1);
+      }
+
+      // Find the third corner, so the ray to the origin passes through the portal
+      for (int i = 0; ; i++) {
+         if (i == MAX_ITERATIONS) {
+            return false;
+         }
+         support(a, b, normal, v3);
+         if (v3.v.dotProduct(normal) <= 0) {
+            return false;
+         }
+         if (cross.setCrossProduct(v1.v, v3.v).dotProduct(v0.v) < 0) {
+            // the origin is outside the side (v0, v1, v3), so replace v2
+            SupportPoint swap = v2;
+            v2 = v3;
+            v3 = swap;
+            setTriangleNormal(v0, v1, v2);
+            continue;
+         }
+         if (cross.setCrossProduct(v3.v, v2.v).dotProduct(v0.v) < 0) {
+            // the origin is outside the side (v0, v3, v2), so replace v1
+            SupportPoint swap = v1;
+            v1 = v3;
+            v3 = swap;
+            setTriangleNormal(v0, v1, v2);
+            continue;
+         }
+         break;
+      }
+
+      // Refine the portal until it lies on the surface of the difference
+      boolean hit = false;
+      for (int i = 0; ; i++) {
+         setTriangleNormal(v1, v2, v3);
+         float length = (float) normal.magnitude();
+         if (length < 1e-12f) {
+            return false;
+         }
+         normal.divide(length);
+         float distance = normal.dotProduct(v1.v);
+         if (distance >= 0) {
+            // the origin is behind the portal, so it's inside the difference
+            hit = true;
+         }
+         support(a, b, normal, v4);
+         float beyond = v4.v.dotProduct(normal) - v3.v.dotProduct(normal);
+         if ((beyond <= PORTAL_TOLERANCE) || (v4.v.dotProduct(normal) < 0) || (i == MAX_ITERATIONS)) {
+            if (!hit) {
+               return false;
+            }
+            depth = distance;
+            setContact();
+            // the portal faces away from b's origin towards a's, which is the way to push a out
+            return true;
+         }
+         // Replace whichever corner leaves the ray to the origin passing through the new portal
+         cross.setCrossProduct(v4.v, v0.v);
+         SupportPoint swap;
+         if (v1.v.dotProduct(cross) > 0) {
+            if (v2.v.dotProduct(cross) > 0) {
+               swap = v1;
+               v1 = v4;
+            }
+            else {
+               swap = v3;
+               v3 = v4;
+            }
+         }
+         else {
+            if (v3.v.dotProduct(cross) > 0) {
+               swap = v2;
+               v2 = v4;
+            }
+            else {
+               swap = v1;
+               v1 = v4;
+            }
+         }
+         v4 = swap;
+      }
+   }
+
+   /* Stores the normal of the triangle (p, q, r), which is (q - p) x (r - p), in normal */
+   private void setTriangleNormal(SupportPoint p, SupportPoint q, SupportPoint r) {
+      edge1.set(q.v).subtract(p.v);
+      edge2.set(r.v).subtract(p.v);
+      normal.setCrossProduct(edge1, edge2);
+   }
+
+   /*
+    * Sets the contact to half way between the points of a and of b that the origin is the difference of, from the
+    * barycentric coordinates of the origin in the tetrahedron (v0, v1, v2, v3), or on the portal if it lies outside.
+    */
+   private void setContact() {
+      float b0 = cross.setCrossProduct(v1.v, v2.v).dotProduct(v3.v);
+      float b1 = cross.setCrossProduct(v3.v, v2.v).dotProduct(v0.v);
+      float b2 = cross.setCrossProduct(v0.v, v1.v).dotProduct(v3.v);
+      float b3 = cross.setCrossProduct(v2.v, v1.v).dotProduct(v0.v);
+      float sum = b0 + b1 + b2 + b3;
+      if (sum <= 0) {
+         b0 = 0;
+         b1 = cross.setCrossProduct(v2.v, v3.v).dotProduct(normal);
+         b2 = cross.setCrossProduct(v3.v, v1.v).dotProduct(normal);
+         b3 = cross.setCrossProduct(v1.v, v2.v).dotProduct(normal);
+         sum = b1 + b2 + b3;
+      }
+      contact.set(v0.onA).add(v0.onB).multiply(b0)
+             .addScaled(edge1.set(v1.onA).add(v1.onB), b1)
+             .addScaled(edge1.set(v2.onA).add(v2.onB), b2)
+             .addScaled(edge1.set(v3.onA).add(v3.onB), b3)
+             .divide(2 * sum);
+   }
+
+   /*
+    * Stores the point of the difference b - a that is farthest in the direction, and the vertices it comes from:
+    * b's farthest vertex in the direction, less a's farthest vertex in the opposite direction.
+    */
+   private static void support(Model a, Model b, MutableTuple3 direction, SupportPoint dest) {
+      float x = direction.getX();
+      float y = direction.getY();
+      float z = direction.getZ();
+      a.positionVertex(a.farthestVertex(-x, -y, -z), dest.onA);
+      b.positionVertex(b.farthestVertex(x, y, z), dest.onB);
+      dest.v.set(dest.onB).subtract(dest.onA);
+   }
+
+   /*
+    * @return true if the upper model lies on the lower one with a face (more than 2 vertices) against a face of the
+    *         other, rather than a corner or an edge. The sign turns the normal to point from the lower to the upper.
+    */
+   private boolean liesFlatOn(Model upper, Model lower, float sign) {
+      float x = normal.getX() * sign;
+      float y = normal.getY() * sign;
+      float z = normal.getZ() * sign;
+      return (upper.countNear(-x, -y, -z, CONTACT_DISTANCE) > 2) && (lower.countNear(x, y, z, CONTACT_DISTANCE) > 2);
+   }
+}
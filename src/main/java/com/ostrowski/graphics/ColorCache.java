@@ -0,0 +1,262 @@
+package com.ostrowski.graphics;
+
+import java.util.Arrays;
+
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Device;
+
+/**
+ * A long-lived, bounded cache of SWT Colors, keyed by an RGB value and a brightness that scales it.
+ * <p>
+ * The brightness is quantized to BRIGHTNESS_LEVELS steps, and packed with the RGB into a single
+ * primitive key, so a lookup never boxes anything. Keys are found through an open-addressing
+ * (linear probing) table of entry indexes, and the entries themselves are kept on an intrusive
+ * doubly-linked list in least-recently-used order. Once the cache holds its capacity of colors,
+ * the least recently used color is disposed to make room for a new one.
+ * <p>
+ * Colors are native resources, so the owner of the cache must call dispose() once it is done painting,
+ * such as when its shell is closed.
+ */
+public class ColorCache
+{
+   /** The number of distinct brightness values between 0 and 1 (inclusive) that get their own Color */
+   public static final int BRIGHTNESS_LEVELS = 256;
+
+   private static final int  EMPTY = -1;
+
+   private final int      capacity;
+   // per entry:
+   private final long[]   keys;
+   private final Color[]  colors;
+   private final int[]    previous;
+   private final int[]    next;
+   // the open-addressing table, holding entry indexes (or EMPTY)
+   private final int[]    slots;
+   private final int      slotMask;
+
+   private int            size          = 0;
+   private int            mostRecent    = EMPTY;
+   private int            leastRecent   = EMPTY;
+   private Device         device        = null;
+
+   private long           hits          = 0;
+   private long           misses        = 0;
+   private long           evictions     = 0;
+
+   public ColorCache(int capacity) {
+      if (capacity < 1) {
+         throw new IllegalArgumentException("capacity must be positive: " + capacity);
+      }
+      this.capacity = capacity;
+      keys     = new long[capacity];
+      colors   = new Color[capacity];
+      previous = new int[capacity];
+      next     = new int[capacity];
+      // keep the table at most half full, so probe sequences stay short
+      int slotCount = Integer.highestOneBit(capacity * 2);
+      if (slotCount < capacity * 2) {
+         slotCount *= 2;
+      }
+      slots = new int[slotCount];
+      slotMask = slotCount - 1;
+      Arrays.fill(slots, EMPTY);
+   }
+
+   /**
+    * Returns the color for the given RGB, scaled by the given brightness, creating it on the given device
+    * if it is not already in the cache. The returned color belongs to the cache, and must not be disposed
+    * by the caller. It remains valid until it is evicted, so it should not be held beyond the current paint.
+    */
+   public synchronized Color get(Device device, int rgb, float brightness) {
+      if (device != this.device) {
+         // Colors can't be shared across devices
+         dispose();
+         this.device = device;
+      }
+      int level = quantize(brightness);
+      long key = ((long) (rgb & 0xFFFFFF) << 16) | level;
+      int slot = findSlot(key);
+      int entry = slots[slot];
+      if (entry != EMPTY) {
+         hits++;
+         moveToFront(entry);
+         return colors[entry];
+      }
+
+      misses++;
+      if (size == capacity) {
+         evictLeastRecent();
+         // removing an entry may have shifted the probe sequence this key would land in
+         slot = findSlot(key);
+      }
+      entry = size++;
+      float scale = (float) level / (BRIGHTNESS_LEVELS - 1);
+      keys[entry] = key;
+      colors[entry] = createColor(device,
+                                  Math.min(0xFF, Math.round( (rgb >> 16)         * scale)),
+                                  Math.min(0xFF, Math.round(((rgb >>  8) & 0xff) * scale)),
+                                  Math.min(0xFF, Math.round(( rgb        & 0xff) * scale)));
+      slots[slot] = entry;
+      linkAtFront(entry);
+      return colors[entry];
+   }
+
+   protected Color createColor(Device device, int red, int green, int blue) {
+      return new Color(device, red, green, blue);
+   }
+
+   private static int quantize(float brightness) {
+      return Math.max(0, Math.min(BRIGHTNESS_LEVELS - 1, Math.round(brightness * (BRIGHTNESS_LEVELS - 1))));
+   }
+
+   private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+   }
+
+   /* Returns the slot that holds the key, or the empty slot where it would be inserted */
+   private int findSlot(long key) {
+      int slot = hash(key) & slotMask;
+      while ((slots[slot] != EMPTY) && (keys[slots[slot]] != key)) {
+         slot = (slot + 1) & slotMask;
+      }
+      return slot;
+   }
+
+   private void evictLeastRecent() {
+      int entry = leastRecent;
+      evictions++;
+      Color color = colors[entry];
+      if ((color != null) && !color.isDisposed()) {
+         color.dispose();
+      }
+      removeSlot(findSlot(keys[entry]));
+      unlink(entry);
+
+      // Keep the entries dense, by moving the last entry into the vacated one
+      int last = --size;
+      if (entry != last) {
+         slots[findSlot(keys[last])] = entry;
+         keys[entry] = keys[last];
+         colors[entry] = colors[last];
+         int before = previous[last];
+         int after = next[last];
+         previous[entry] = before;
+         next[entry] = after;
+         if (before == EMPTY) {
+            mostRecent = entry;
+         }
+         else {
+            next[before] = entry;
+         }
+         if (after == EMPTY) {
+            leastRecent = entry;
+         }
+         else {
+            previous[after] = entry;
+         }
+      }
+      colors[last] = null;
+   }
+
+   /* Empties a slot of the linear probing table, shifting back any entries further along its probe sequence. */
+   private void removeSlot(int slot) {
+      slots[slot] = EMPTY;
+      int current = (slot + 1) & slotMask;
+      while (slots[current] != EMPTY) {
+         int entry = slots[current];
+         int home = hash(keys[entry]) & slotMask;
+         // the entry can move to the empty slot if its home isn't between the empty slot and where it is now
+         boolean canMove = (slot <= current) ? ((home <= slot) || (home > current))
+                                             : ((home <= slot) && (home > current));
+         if (canMove) {
+            slots[slot] = entry;
+            slots[current] = EMPTY;
+            slot = current;
+         }
+         current = (current + 1) & slotMask;
+      }
+   }
+
+   private void linkAtFront(int entry) {
+      previous[entry] = EMPTY;
+      next[entry] = mostRecent;
+      if (mostRecent != EMPTY) {
+         previous[mostRecent] = entry;
+      }
+      mostRecent = entry;
+      if (leastRecent == EMPTY) {
+         leastRecent = entry;
+      }
+   }
+
+   private void unlink(int entry) {
+      int before = previous[entry];
+      int after = next[entry];
+      if (before == EMPTY) {
+         mostRecent = after;
+      }
+      else {
+         next[before] = after;
+      }
+      if (after == EMPTY) {
+         leastRecent = before;
+      }
+      else {
+         previous[after] = before;
+      }
+   }
+
+   private void moveToFront(int entry) {
+      if (entry != mostRecent) {
+         unlink(entry);
+         linkAtFront(entry);
+      }
+   }
+
+   /**
+    * Disposes every color in the cache. The cache can still be used afterwards.
+    */
+   public synchronized void dispose() {
+      for (int entry = 0; entry < size; entry++) {
+         if ((colors[entry] != null) && !colors[entry].isDisposed()) {
+            colors[entry].dispose();
+         }
+         colors[entry] = null;
+      }
+      Arrays.fill(slots, EMPTY);
+      size = 0;
+      mostRecent = EMPTY;
+      leastRecent = EMPTY;
+      device = null;
+   }
+
+   public int getCapacity() {
+      return capacity;
+   }
+
+   public synchronized int size() {
+      return size;
+   }
+
+   /** @return the number of lookups that found their color already in the cache */
+   public synchronized long getHits() {
+      return hits;
+   }
+
+   /** @return the number of lookups that had to create a new Color */
+   public synchronized long getMisses() {
+      return misses;
+   }
+
+   /** @return the number of colors that were disposed to make room for newer ones */
+   public synchronized long getEvictions() {
+      return evictions;
+   }
+
+   @Override
+   public synchronized String toString() {
+      return "ColorCache{size:" + size + "/" + capacity +
+             ", hits:" + hits + ", misses:" + misses + ", evictions:" + evictions + "}";
+   }
+}
@@ -0,0 +1,76 @@
+package com.ostrowski.graphics;
+
+/**
+ * Finds the convex hull of a set of integer screen points, using Andrew's monotone chain algorithm.
+ * <p>
+ * All of the working storage is passed in by the caller, so that hulls that are recomputed every frame
+ * (such as the silhouette and the shadow of a moving die) never allocate.
+ */
+final class ConvexHull
+{
+   private ConvexHull() {
+   }
+
+   /**
+    * Computes the convex hull of the count points (xs[i], ys[i]), and writes it into polygon as (x,y) pairs.
+    * The polygon array must hold 2 * count entries. Since the hull usually has fewer points than that, the
+    * entries past the end of the hull repeat its last point, which adds nothing to a filled polygon or a Region.
+    *
+    * @param order scratch space for at least count indexes
+    * @param hull  scratch space for at least count + 1 indexes
+    * @return the number of points on the hull
+    */
+   static int compute(int[] xs, int[] ys, int count, int[] order, int[] hull, int[] polygon) {
+      int hullCount = computeIndexes(xs, ys, count, order, hull);
+      for (int p = 0; p < count; p++) {
+         int i = hull[Math.min(p, hullCount - 1)];
+         polygon[p * 2]       = xs[i];
+         polygon[(p * 2) + 1] = ys[i];
+      }
+      return hullCount;
+   }
+
+   /* Leaves the indexes of the points on the hull in the hull array, and returns how many there are. */
+   private static int computeIndexes(int[] xs, int[] ys, int count, int[] order, int[] hull) {
+      // Sort the points by x, then y. The point counts are small, so an insertion sort is all we need.
+      for (int i = 0; i < count; i++) {
+         int j = i - 1;
+         while ((j >= 0) && isBefore(xs, ys, i, order[j])) {
+            order[j + 1] = order[j];
+            j--;
+         }
+         order[j + 1] = i;
+      }
+      if (count < 3) {
+         System.arraycopy(order, 0, hull, 0, count);
+         return count;
+      }
+
+      int hullCount = 0;
+      // lower hull
+      for (int i = 0; i < count; i++) {
+         while ((hullCount >= 2) && (cross(xs, ys, hull[hullCount - 2], hull[hullCount - 1], order[i]) <= 0)) {
+            hullCount--;
+         }
+         hull[hullCount++] = order[i];
+      }
+      // upper hull
+      int lowerCount = hullCount + 1;
+      for (int i = count - 2; i >= 0; i--) {
+         while ((hullCount >= lowerCount) && (cross(xs, ys, hull[hullCount - 2], hull[hullCount - 1], order[i]) <= 0)) {
+            hullCount--;
+         }
+         hull[hullCount++] = order[i];
+      }
+      // The last point is the same as the first one
+      return Math.max(1, hullCount - 1);
+   }
+
+   private static boolean isBefore(int[] xs, int[] ys, int a, int b) {
+      return (xs[a] < xs[b]) || ((xs[a] == xs[b]) && (ys[a] < ys[b]));
+   }
+
+   private static long cross(int[] xs, int[] ys, int o, int a, int b) {
+      return ((long) (xs[a] - xs[o]) * (ys[b] - ys[o])) - ((long) (ys[a] - ys[o]) * (xs[b] - xs[o]));
+   }
+}
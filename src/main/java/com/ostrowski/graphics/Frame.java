@@ -1,76 +1,106 @@
 package com.ostrowski.graphics;
 
 import com.ostrowski.graphics.model.Matrix3x3;
+import com.ostrowski.graphics.model.Quaternion;
 import com.ostrowski.graphics.model.Tuple3;
 
 import static com.ostrowski.graphics.World3D.UP_VECTOR;
 
 public class Frame {
-   public final Tuple3    location;
-   public final Tuple3    velocity;
-   public final Tuple3    rotationalAxis;
-   public final Matrix3x3 orientationTransform;
+   public final Tuple3     location;
+   public final Tuple3     velocity;
+   public final Tuple3     rotationalAxis;
+   /* A unit quaternion, from which the orientation matrix is only built when something is transformed by it */
+   public final Quaternion orientation;
+   private      Matrix3x3  orientationTransform = null;
 
    public Frame(Tuple3 location, Tuple3 velocity, Tuple3 rotationalAxis) {
-      this (location, velocity, rotationalAxis, Matrix3x3.IdentityMatrix());
+      this (location, velocity, rotationalAxis, Quaternion.IDENTITY);
    }
 
    public Frame(Tuple3 location, Tuple3 velocity, Tuple3 rotationalAxis, Matrix3x3 orientationTransform) {
+      this (location, velocity, rotationalAxis, Quaternion.fromMatrix(orientationTransform));
+   }
+
+   public Frame(Tuple3 location, Tuple3 velocity, Tuple3 rotationalAxis, Quaternion orientation) {
       this.location = location;
       this.velocity = velocity;
       this.rotationalAxis = rotationalAxis;
-      this.orientationTransform = orientationTransform;
+      this.orientation = orientation;
+   }
+
+   /**
+    * @return the rotation matrix of this frame's orientation, which is built the first time it is asked for.
+    */
+   public Matrix3x3 getOrientationTransform() {
+      if (orientationTransform == null) {
+         orientationTransform = orientation.toMatrix3x3();
+      }
+      return orientationTransform;
    }
 
    public Frame update(float elapsedTimeInSeconds, Tuple3 acceleration) {
+      // The physics itself lives in the MutableFrame, which the Models step with.
+      return new MutableFrame(this).update(elapsedTimeInSeconds, acceleration).toFrame();
+   }
 
-      // Finally, update the current velocity by applying the gravity:
-      Tuple3 initialVelocity = velocity;
-      Tuple3 newVelocity = velocity.add(acceleration.multiply(elapsedTimeInSeconds));
-      Tuple3 averageVelocity = initialVelocity.add(newVelocity).divide(2.0f);
-      Tuple3 newLocation = location.add(averageVelocity.multiply(elapsedTimeInSeconds));
-      Matrix3x3 newOrientationTransform = orientationTransform;
-      double rotationInDegrees = rotationalAxis.magnitude() * elapsedTimeInSeconds;
-      System.out.println("rotationInDegrees = " + rotationInDegrees);
-      if (rotationInDegrees != 0) {
-         Matrix3x3 rotationalMatrix = Matrix3x3.getRotationalTransformationAboutVector(rotationalAxis, rotationInDegrees);
-         newOrientationTransform = rotationalMatrix.multiply(orientationTransform);
+   /**
+    * Returns the frame the given fraction of the way from this frame to the next one, for drawing the time between
+    * two simulation steps. The location moves in a straight line, and the orientation turns at a constant rate
+    * about the single axis that takes this orientation to the next one. The velocities are those of the next frame.
+    */
+   public Frame interpolate(Frame next, float fraction) {
+      if (fraction <= 0) {
+         return this;
       }
-
-      System.out.println("location = " + newLocation);
-      return new Frame(newLocation, newVelocity, rotationalAxis, newOrientationTransform);
+      if (fraction >= 1) {
+         return next;
+      }
+      Tuple3 newLocation = location.add(next.location.subtract(location).multiply(fraction));
+      return new Frame(newLocation, next.velocity, next.rotationalAxis, orientation.slerp(next.orientation, fraction));
    }
 
    public Tuple3 positionVertex(Tuple3 vertex) {
-      return vertex.applyTransformation(orientationTransform).add(location);
+      return vertex.applyTransformation(getOrientationTransform()).add(location);
+   }
+
+   /**
+    * Fills dest with the affine transform that positions a vertex the same way positionVertex does,
+    * for use with the VertexKernel.
+    */
+   public float[] getAffineTransform(float[] dest) {
+      return VertexKernel.setAffine(dest, getOrientationTransform(), location);
    }
 
    public Frame setVelocity(Tuple3 velocity) {
-      return new Frame(location, velocity, rotationalAxis, orientationTransform);
+      return new Frame(location, velocity, rotationalAxis, orientation);
    }
 
    public Frame setRotationalAxis(Tuple3 rotationalAxis) {
-      return new Frame(location, velocity, rotationalAxis, orientationTransform);
+      return new Frame(location, velocity, rotationalAxis, orientation);
    }
    public Frame setRotationalSpeed(float degreesPerSecond) {
       return setRotationalAxis(rotationalAxis.unitVector().multiply(degreesPerSecond));
    }
 
    public Frame addLocation(Tuple3 locDelta) {
-      return new Frame(location.add(locDelta), velocity, rotationalAxis, orientationTransform);
+      return new Frame(location.add(locDelta), velocity, rotationalAxis, orientation);
    }
 
    public Frame setUp(Tuple3 targetOrientation) {
-      float rotationInDegrees = (float) Math.toDegrees(Math.acos(targetOrientation.dotProduct(UP_VECTOR)));
-      Tuple3 rotationalAxis = targetOrientation.crossProduct(UP_VECTOR).unitVector();
-      Matrix3x3 rotationalMatrix = Matrix3x3.getRotationalTransformationAboutVector(rotationalAxis, rotationInDegrees);
-      Matrix3x3 newOrientationTransform = rotationalMatrix.multiply(orientationTransform);
-      return new Frame(location, velocity, this.rotationalAxis, newOrientationTransform);
+      float cosAngle = Math.max(-1, Math.min(1, targetOrientation.dotProduct(UP_VECTOR)));
+      float rotationInDegrees = (float) Math.toDegrees(Math.acos(cosAngle));
+      Tuple3 rotationalAxis = targetOrientation.crossProduct(UP_VECTOR);
+      if (rotationalAxis.magnitude() < 1e-6) {
+         // The target already points straight up (or down), so any horizontal axis turns it up
+         rotationalAxis = new Tuple3(1, 0, 0);
+      }
+      Quaternion rotation = Quaternion.getRotationAboutVector(rotationalAxis, rotationInDegrees);
+      return new Frame(location, velocity, this.rotationalAxis, orientation.followedBy(rotation));
    }
    public synchronized Frame rotateByDegrees(double rotationInDegrees) {
-      Matrix3x3 rotationalMatrix = Matrix3x3.getRotationalTransformationAboutVector(rotationalAxis, rotationInDegrees);
-      Matrix3x3 newOrientationTransform = rotationalMatrix.multiply(orientationTransform);
-      return new Frame(location, velocity, rotationalAxis, newOrientationTransform);
+      Quaternion rotation = Quaternion.getRotationAboutVector(rotationalAxis, rotationInDegrees);
+      return new Frame(location, velocity, rotationalAxis, orientation.followedBy(rotation));
    }
 
 }
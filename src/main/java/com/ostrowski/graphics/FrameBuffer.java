@@ -0,0 +1,100 @@
+package com.ostrowski.graphics;
+
+import java.util.Arrays;
+
+/**
+ * A plain in-memory RGB pixel buffer that the World3D renders into.
+ * The buffer is reused from frame to frame, and only grows when it is asked to hold a larger size.
+ * Pixels that nothing has been drawn on hold the TRANSPARENT_RGB value.
+ * <p>
+ * An optional depth buffer of the same layout holds the inverse depth of each drawn pixel.
+ * It is only allocated once something asks for it.
+ */
+public class FrameBuffer
+{
+   /** The key color of pixels that nothing was drawn on. Drawn pixels are never allowed to take this value. */
+   public static final int TRANSPARENT_RGB = 0xFF00FF;
+
+   private int     width  = 0;
+   private int     height = 0;
+   private int[]   pixels = new int[0];
+   private float[] depths = null;
+
+   /**
+    * Sets the size of the buffer. The backing array is only reallocated when it is too small.
+    *
+    * @return true if the size changed
+    */
+   public boolean setSize(int width, int height) {
+      width = Math.max(width, 0);
+      height = Math.max(height, 0);
+      if ((this.width == width) && (this.height == height)) {
+         return false;
+      }
+      if (pixels.length < (width * height)) {
+         pixels = new int[width * height];
+         depths = null;
+      }
+      this.width = width;
+      this.height = height;
+      return true;
+   }
+
+   public void clear() {
+      Arrays.fill(pixels, 0, width * height, TRANSPARENT_RGB);
+   }
+
+   /**
+    * Resets every entry of the depth buffer to be infinitely far away.
+    */
+   public void clearDepths() {
+      Arrays.fill(getDepths(), 0, width * height, 0f);
+   }
+
+   /**
+    * The depth buffer, laid out the same way as getPixels(). Each entry holds the inverse depth of the pixel,
+    * so larger values are closer to the camera, and 0 is infinitely far away.
+    */
+   public float[] getDepths() {
+      if ((depths == null) || (depths.length < pixels.length)) {
+         depths = new float[pixels.length];
+      }
+      return depths;
+   }
+
+   public int getWidth() {
+      return width;
+   }
+
+   public int getHeight() {
+      return height;
+   }
+
+   /**
+    * The backing array, laid out in rows of getWidth() pixels.
+    * Note that the array may be longer than getWidth() * getHeight().
+    */
+   public int[] getPixels() {
+      return pixels;
+   }
+
+   public int getPixel(int x, int y) {
+      return pixels[(y * width) + x];
+   }
+
+   public void setPixel(int x, int y, int rgb) {
+      pixels[(y * width) + x] = opaque(rgb);
+   }
+
+   public void fillSpan(int y, int xStart, int xEnd, int rgb) {
+      int row = y * width;
+      Arrays.fill(pixels, row + xStart, row + xEnd, opaque(rgb));
+   }
+
+   /**
+    * Returns the given color, nudged by one step of blue if it would otherwise be read as transparent.
+    */
+   public static int opaque(int rgb) {
+      return (rgb == TRANSPARENT_RGB) ? (rgb ^ 1) : rgb;
+   }
+}
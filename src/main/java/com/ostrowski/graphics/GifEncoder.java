@@ -0,0 +1,326 @@
+package com.ostrowski.graphics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes an animated GIF (GIF89a) one frame at a time, straight to a stream.
+ * <p>
+ * All the frames share one global palette, which is given up front, so no frame carries a palette of its own.
+ * Each frame is compared with the frame before it, and only the bounding rectangle of the pixels that changed is
+ * encoded. Inside that rectangle, the pixels that didn't change are written as the transparent index, and frames
+ * are never disposed, so the previous frame shows through them. Long runs of a single index are exactly what
+ * LZW compresses best, so a die tumbling across a still background costs little more than the die itself.
+ * <p>
+ * Only the palette indexes of the previous frame are kept, so the memory used depends on the size of the image,
+ * and not on how many frames are written. Colors that aren't in the palette are drawn with the nearest one.
+ */
+public class GifEncoder
+{
+   /** The most colors a palette may hold. Index 0 is reserved for the pixels that are unchanged. */
+   public static final int MAX_COLORS = 255;
+
+   private static final int UNCHANGED_INDEX = 0;
+   private static final int MIN_CODE_BITS   = 8;
+   private static final int MAX_CODE_BITS   = 12;
+   private static final int CLEAR_CODE      = 1 << MIN_CODE_BITS;
+   private static final int END_CODE        = CLEAR_CODE + 1;
+   private static final int FIRST_CODE      = CLEAR_CODE + 2;
+   /* A prime about twice the size of the largest code table, so linear probes stay short */
+   private static final int TABLE_SIZE      = 8191;
+
+   private final OutputStream out;
+   private final int          width;
+   private final int          height;
+   private final int[]        palette;
+   private final int[]        sortedRGBs;
+   private final byte[]       sortedIndexes;
+   // palette indexes of the nearest color to each 15 bit (5 bits per channel) RGB, or 0 until it's needed
+   private final byte[]       nearestIndexes = new byte[1 << 15];
+   private       int          lastRGB        = -1;
+   private       int          lastIndex      = -1;
+
+   private       byte[]       previous;
+   private       byte[]       current;
+   private       boolean      finished       = false;
+
+   // the LZW code table, keyed by (prefix code << 8 | next index)
+   private final int[]        tableKeys      = new int[TABLE_SIZE];
+   private final short[]      tableCodes     = new short[TABLE_SIZE];
+   private       int          nextCode;
+   private       int          codeBits;
+   private       int          bitBuffer;
+   private       int          bitCount;
+   private final byte[]       block          = new byte[255];
+   private       int          blockSize;
+
+   /**
+    * Writes the header and the global palette of a width by height GIF to the stream.
+    * The stream isn't buffered here, and it is left open by finish().
+    *
+    * @param paletteRGBs up to MAX_COLORS distinct RGB colors
+    */
+   public GifEncoder(OutputStream out, int width, int height, int[] paletteRGBs) throws IOException {
+      if ((width < 1) || (height < 1) || (width > 0xFFFF) || (height > 0xFFFF)) {
+         throw new IllegalArgumentException("invalid GIF size: " + width + "x" + height);
+      }
+      if ((paletteRGBs.length < 1) || (paletteRGBs.length > MAX_COLORS)) {
+         throw new IllegalArgumentException("a GIF palette holds from 1 to " + MAX_COLORS + " colors: " + paletteRGBs.length);
+      }
+      this.out = out;
+      this.width = width;
+      this.height = height;
+      palette = new int[MAX_COLORS + 1];
+      System.arraycopy(paletteRGBs, 0, palette, 1, paletteRGBs.length);
+
+      // Exact palette colors are found by a binary search, so they are never mistaken for a close neighbor.
+      long[] sorted = new long[paletteRGBs.length];
+      for (int i = 0; i < paletteRGBs.length; i++) {
+         sorted[i] = ((long) (paletteRGBs[i] & 0xFFFFFF) << 8) | (i + 1);
+      }
+      Arrays.sort(sorted);
+      sortedRGBs = new int[sorted.length];
+      sortedIndexes = new byte[sorted.length];
+      for (int i = 0; i < sorted.length; i++) {
+         sortedRGBs[i] = (int) (sorted[i] >> 8);
+         sortedIndexes[i] = (byte) sorted[i];
+      }
+
+      // Every pixel of the first frame differs from these, since no color maps to the unchanged index.
+      previous = new byte[width * height];
+      current = new byte[width * height];
+
+      writeASCII("GIF89a");
+      writeShort(width);
+      writeShort(height);
+      out.write(0xF7);  // a global color table of 2^(7+1) entries, with 8 bits per primary
+      out.write(UNCHANGED_INDEX);  // background color index
+      out.write(0);  // no pixel aspect ratio
+      for (int rgb : palette) {
+         out.write((rgb >> 16) & 0xFF);
+         out.write((rgb >>  8) & 0xFF);
+         out.write( rgb        & 0xFF);
+      }
+   }
+
+   /**
+    * Encodes the next frame, which is shown for the given delay. The frame is read from a width by height
+    * window of the pixels, starting at offset, whose rows are stride pixels apart.
+    */
+   public void writeFrame(int[] pixels, int offset, int stride, int delayInCentiseconds) throws IOException {
+      if (finished) {
+         throw new IllegalStateException("the GIF is already finished");
+      }
+      int minX = width;
+      int maxX = -1;
+      int minY = height;
+      int maxY = -1;
+      for (int y = 0; y < height; y++) {
+         int source = offset + (y * stride);
+         int dest = y * width;
+         boolean rowChanged = false;
+         for (int x = 0; x < width; x++) {
+            byte index = indexOf(pixels[source + x]);
+            current[dest + x] = index;
+            if (index != previous[dest + x]) {
+               rowChanged = true;
+               if (x < minX) {
+                  minX = x;
+               }
+               if (x > maxX) {
+                  maxX = x;
+               }
+            }
+         }
+         if (rowChanged) {
+            if (y < minY) {
+               minY = y;
+            }
+            maxY = y;
+         }
+      }
+      if (maxX < 0) {
+         // Nothing changed, but the frame still has to be written for its delay, so write a single unchanged pixel.
+         minX = maxX = minY = maxY = 0;
+      }
+
+      // graphic control extension: leave the frame in place, and let index 0 show the previous frame through
+      out.write(0x21);
+      out.write(0xF9);
+      out.write(4);
+      out.write(0x05);
+      writeShort(Math.max(0, Math.min(0xFFFF, delayInCentiseconds)));
+      out.write(UNCHANGED_INDEX);
+      out.write(0);
+
+      // image descriptor, with no local color table
+      out.write(0x2C);
+      writeShort(minX);
+      writeShort(minY);
+      writeShort((maxX - minX) + 1);
+      writeShort((maxY - minY) + 1);
+      out.write(0);
+      writeImageData(minX, minY, maxX, maxY);
+
+      byte[] swap = previous;
+      previous = current;
+      current = swap;
+   }
+
+   /**
+    * Writes the GIF trailer, and flushes (but doesn't close) the stream. No frames may be written after this.
+    */
+   public void finish() throws IOException {
+      if (!finished) {
+         finished = true;
+         out.write(0x3B);
+         out.flush();
+      }
+   }
+
+   private byte indexOf(int rgb) {
+      rgb &= 0xFFFFFF;
+      if (rgb == lastRGB) {
+         return (byte) lastIndex;
+      }
+      byte index;
+      int exact = Arrays.binarySearch(sortedRGBs, rgb);
+      if (exact >= 0) {
+         index = sortedIndexes[exact];
+      }
+      else {
+         int key = ((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x03E0) | ((rgb >> 3) & 0x001F);
+         index = nearestIndexes[key];
+         if (index == UNCHANGED_INDEX) {
+            // Look up the nearest color to the middle of the 15 bit cell once, so every color in the cell maps alike
+            index = findNearest(((key >> 10) << 3) + 4, (((key >> 5) & 0x1F) << 3) + 4, ((key & 0x1F) << 3) + 4);
+            nearestIndexes[key] = index;
+         }
+      }
+      lastRGB = rgb;
+      lastIndex = index;
+      return index;
+   }
+
+   private byte findNearest(int red, int green, int blue) {
+      int nearest = 1;
+      int nearestDistance = Integer.MAX_VALUE;
+      for (int i = 0; i < sortedIndexes.length; i++) {
+         int rgb = sortedRGBs[i];
+         int dr = ((rgb >> 16) & 0xFF) - red;
+         int dg = ((rgb >>  8) & 0xFF) - green;
+         int db = ( rgb        & 0xFF) - blue;
+         // weighted by how sensitive the eye is to each primary
+         int distance = (3 * dr * dr) + (4 * dg * dg) + (2 * db * db);
+         if (distance < nearestDistance) {
+            nearestDistance = distance;
+            nearest = sortedIndexes[i] & 0xFF;
+         }
+      }
+      return (byte) nearest;
+   }
+
+   /* LZW compresses the rectangle of the current frame, writing unchanged pixels as the unchanged index. */
+   private void writeImageData(int minX, int minY, int maxX, int maxY) throws IOException {
+      out.write(MIN_CODE_BITS);
+      blockSize = 0;
+      bitBuffer = 0;
+      bitCount = 0;
+      codeBits = MIN_CODE_BITS + 1;
+      resetTable();
+      writeCode(CLEAR_CODE);
+
+      int prefix = -1;
+      for (int y = minY; y <= maxY; y++) {
+         int row = y * width;
+         for (int x = minX; x <= maxX; x++) {
+            int index = current[row + x];
+            int next = (index == previous[row + x]) ? UNCHANGED_INDEX : (index & 0xFF);
+            if (prefix < 0) {
+               prefix = next;
+               continue;
+            }
+            int key = (prefix << 8) | next;
+            int slot = ((key * 0x9E3779B1) >>> 1) % TABLE_SIZE;
+            while ((tableKeys[slot] != -1) && (tableKeys[slot] != key)) {
+               if (++slot == TABLE_SIZE) {
+                  slot = 0;
+               }
+            }
+            if (tableKeys[slot] == key) {
+               prefix = tableCodes[slot];
+               continue;
+            }
+            // The decoder reads this code once it holds every entry but the one added for it below
+            writeCode(prefix, nextCode - 1);
+            if (nextCode < (1 << MAX_CODE_BITS)) {
+               tableKeys[slot] = key;
+               tableCodes[slot] = (short) nextCode++;
+            }
+            else {
+               writeCode(CLEAR_CODE, nextCode);
+               resetTable();
+               codeBits = MIN_CODE_BITS + 1;
+            }
+            prefix = next;
+         }
+      }
+      writeCode(prefix, nextCode - 1);
+      writeCode(END_CODE, nextCode);
+      if (bitCount > 0) {
+         writeByte(bitBuffer & 0xFF);
+      }
+      flushBlock();
+      out.write(0);  // block terminator
+   }
+
+   private void resetTable() {
+      Arrays.fill(tableKeys, -1);
+      nextCode = FIRST_CODE;
+   }
+
+   private void writeCode(int code) throws IOException {
+      writeCode(code, nextCode - 1);
+   }
+
+   /* Writes the code as wide as the decoder will read it, which is once its table holds the given number of entries. */
+   private void writeCode(int code, int decoderEntries) throws IOException {
+      if ((decoderEntries >= (1 << codeBits)) && (codeBits < MAX_CODE_BITS)) {
+         codeBits++;
+      }
+      bitBuffer |= code << bitCount;
+      bitCount += codeBits;
+      while (bitCount >= 8) {
+         writeByte(bitBuffer & 0xFF);
+         bitBuffer >>>= 8;
+         bitCount -= 8;
+      }
+   }
+
+   private void writeByte(int value) throws IOException {
+      block[blockSize++] = (byte) value;
+      if (blockSize == block.length) {
+         flushBlock();
+      }
+   }
+
+   private void flushBlock() throws IOException {
+      if (blockSize > 0) {
+         out.write(blockSize);
+         out.write(block, 0, blockSize);
+         blockSize = 0;
+      }
+   }
+
+   private void writeShort(int value) throws IOException {
+      out.write(value & 0xFF);
+      out.write((value >> 8) & 0xFF);
+   }
+
+   private void writeASCII(String text) throws IOException {
+      for (int i = 0; i < text.length(); i++) {
+         out.write(text.charAt(i));
+      }
+   }
+}
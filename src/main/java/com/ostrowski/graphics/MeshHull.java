@@ -0,0 +1,134 @@
+package com.ostrowski.graphics;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.ostrowski.graphics.model.Face;
+
+/**
+ * The vertices of a convex mesh, along with which of them share an edge, which answers the two questions the physics
+ * asks of a model's shape: which vertex is farthest in a given direction (its support vertex), and which vertices
+ * are within some distance of that.
+ * <p>
+ * On a convex shape, a vertex that is at least as far in the direction as all of its neighbors is as far as any
+ * vertex at all, so the support vertex is found by climbing from neighbor to neighbor, starting from the answer to
+ * the last question. Since a model only turns a little in a step, that is usually already the answer, or a neighbor
+ * of it, so the query takes close to the same time however many vertices the mesh has. The vertices beyond any plane
+ * are all connected by edges beyond it as well, so the ones near the support vertex are found by spreading out from
+ * it, without looking at the rest.
+ * <p>
+ * Dice are convex, so their meshes are their own hulls, and the edges of their faces are the edges of the hull.
+ * Queries are made in model space, and all of the working storage is kept, so a query allocates nothing.
+ */
+final class MeshHull
+{
+   private final float[] vertexX;
+   private final float[] vertexY;
+   private final float[] vertexZ;
+   /* The neighbors of vertex v are neighbors[firstNeighbor[v]] up to (but not including) neighbors[firstNeighbor[v + 1]] */
+   private final int[]   firstNeighbor;
+   private final int[]   neighbors;
+   /* The vertices that gather() has already looked at are marked with the current mark */
+   private final int[]   marks;
+   private       int     mark = 0;
+
+   /**
+    * @param faces the faces of the mesh, whose vertex indexes are into the vertex arrays
+    */
+   MeshHull(float[] vertexX, float[] vertexY, float[] vertexZ, int vertexCount, List<Face> faces) {
+      this.vertexX = vertexX;
+      this.vertexY = vertexY;
+      this.vertexZ = vertexZ;
+      boolean[][] adjacent = new boolean[vertexCount][vertexCount];
+      for (Face face : faces) {
+         for (int p = 0; p < face.vertexCount; p++) {
+            int from = face.getVertexIndex(p);
+            int to = face.getVertexIndex((p + 1) % face.vertexCount);
+            if (from != to) {
+               adjacent[from][to] = true;
+               adjacent[to][from] = true;
+            }
+         }
+      }
+      firstNeighbor = new int[vertexCount + 1];
+      int count = 0;
+      for (int v = 0; v < vertexCount; v++) {
+         firstNeighbor[v] = count;
+         for (int n = 0; n < vertexCount; n++) {
+            if (adjacent[v][n]) {
+               count++;
+            }
+         }
+      }
+      firstNeighbor[vertexCount] = count;
+      neighbors = new int[count];
+      count = 0;
+      for (int v = 0; v < vertexCount; v++) {
+         for (int n = 0; n < vertexCount; n++) {
+            if (adjacent[v][n]) {
+               neighbors[count++] = n;
+            }
+         }
+      }
+      marks = new int[vertexCount];
+   }
+
+   /**
+    * @param start the vertex to start climbing from, which is best left as the answer to the last query
+    * @return the index of a vertex that is as far in the (model space) direction as any
+    */
+   int support(float x, float y, float z, int start) {
+      int best = start;
+      float bestDistance = distance(best, x, y, z);
+      int current;
+      do {
+         current = best;
+         for (int i = firstNeighbor[current]; i < firstNeighbor[current + 1]; i++) {
+            int neighbor = neighbors[i];
+            float distance = distance(neighbor, x, y, z);
+            if (distance > bestDistance) {
+               best = neighbor;
+               bestDistance = distance;
+            }
+         }
+      } while (best != current);
+      return best;
+   }
+
+   /**
+    * Finds every vertex that is farther than the limit in the (model space) direction, by spreading out from one that
+    * is, along the edges of the hull.
+    *
+    * @param from a vertex that is farther than the limit, such as the support vertex
+    * @param dest where the indexes of the vertices are put, which must have room for every vertex of the mesh
+    * @return the number of vertices put into dest (from is the first)
+    */
+   int gather(float x, float y, float z, int from, float limit, int[] dest) {
+      if (mark == Integer.MAX_VALUE) {
+         Arrays.fill(marks, 0);
+         mark = 0;
+      }
+      mark++;
+      marks[from] = mark;
+      dest[0] = from;
+      int count = 1;
+      for (int g = 0; g < count; g++) {
+         int vertex = dest[g];
+         for (int i = firstNeighbor[vertex]; i < firstNeighbor[vertex + 1]; i++) {
+            int neighbor = neighbors[i];
+            if (marks[neighbor] != mark) {
+               marks[neighbor] = mark;
+               if (distance(neighbor, x, y, z) > limit) {
+                  dest[count++] = neighbor;
+               }
+            }
+         }
+      }
+      return count;
+   }
+
+   /** @return how far the vertex is in the (model space) direction */
+   float distance(int vertex, float x, float y, float z) {
+      return (vertexX[vertex] * x) + (vertexY[vertex] * y) + (vertexZ[vertex] * z);
+   }
+}
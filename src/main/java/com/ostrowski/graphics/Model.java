@@ -1,11 +1,15 @@
 package com.ostrowski.graphics;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import com.ostrowski.graphics.model.ColoredFace;
 import com.ostrowski.graphics.model.Face;
 import com.ostrowski.graphics.model.Matrix3x3;
+import com.ostrowski.graphics.model.MutableTuple3;
+import com.ostrowski.graphics.model.Quaternion;
 import com.ostrowski.graphics.model.ObjData;
 import com.ostrowski.graphics.model.Tuple3;
 
@@ -15,159 +19,512 @@ public class Model
 {
    protected final ObjData data;
    protected final float scale;
-   protected       Frame   frame;
+   /* Where the model is, and how it is moving. The physics steps change these in place. */
+   protected final MutableFrame state         = new MutableFrame();
+   /* The state before the last step, which frames are interpolated from between steps */
+   private   final MutableFrame previousState = new MutableFrame();
+   private   final MutableFrame nextState     = new MutableFrame();
+   private         boolean      hasPreviousState = false;
+   /* Immutable copies of the state and the previous state, made when they are asked for (or null until they are) */
+   private         Frame        frame         = null;
+   private         Frame        previousFrame = null;
+   /* The recorded roll being replayed instead of the physics (or null), how far into it the model is,
+    * and how far sideways it is moved from where it was recorded */
+   private         Trajectory   trajectory        = null;
+   private         int          trajectoryStep    = 0;
+   private         float        trajectoryOffsetX = 0;
+   /* A symmetry of the model's shape that it is drawn turned by (in model space), so it shows another face.
+    * The physics (and a replayed recording) never sees it, since it leaves the shape exactly where it was. */
+   protected       Quaternion   relabeling     = Quaternion.IDENTITY;
    protected       int     baseRGB = 0x3030FF;                  // default color is light blue
    protected       boolean moving  = true;
+   /* true when another model ran into this one in the last step, so it can come to rest propped up on an edge */
+   private         boolean propped = false;
+   /* true if the model moved in the last step (even if it came to rest at the end of it), or was pushed since */
+   private         boolean movedInLastStep = false;
+   /* true when the model has been thrown (again) from the start, and the world hasn't made room for it there yet */
+                   boolean thrown          = false;
    protected       Tuple3  centerMass;
+   // The model space vertices, packed into arrays for the VertexKernel.
+   protected final int     vertexCount;
+   protected final float[] vertexX;
+   protected final float[] vertexY;
+   protected final float[] vertexZ;
+   /* The distance of the farthest vertex from the model's origin, which the model never reaches outside of */
+   protected final float   boundingRadius;
+   /* The hull of the vertices, which finds the ones that touch the floor, or another model, without positioning the rest */
+   private   final MeshHull hull;
+   /* The vertices the hull last found near the floor, or near a contact */
+   private   final int[]   nearVertices;
+   /* The lowest vertex in the last step, and the last vertex of a contact query, which the next queries start from */
+   private         int     lowestVertex  = 0;
+   private         int     contactVertex = 0;
+   private   final float[] transform        = new float[VertexKernel.AFFINE_SIZE];
+   /* The transform of the state, for the contact queries of the collisions between models */
+   private   final float[] contactTransform = new float[VertexKernel.AFFINE_SIZE];
+   // scratch space for the collision with the floor, so a step allocates nothing
+   private   final MutableTuple3 centerMassBelowFloor = new MutableTuple3();
+   private   final MutableTuple3 positionedCenterMass = new MutableTuple3();
+   private   final MutableTuple3 pointToCenter        = new MutableTuple3();
+   private   final MutableTuple3 torque               = new MutableTuple3();
+   private   final MutableTuple3 movementAtFloor      = new MutableTuple3();
+   private   final MutableTuple3 collisionTorque      = new MutableTuple3();
+
+   /* The random numbers of models that aren't given their own, which makes every roll different */
+   private static final Random SHARED_RANDOM = new Random();
+   /* The most times one step is split in half to find when a vertex hit the floor */
+   private static final int    MAX_SUBDIVISIONS = 4;
 
    public Model(ObjData data, float scale, Integer baseRGB) {
+      this(data, scale, baseRGB, SHARED_RANDOM);
+   }
+
+   /**
+    * Creates a model that is thrown with a velocity and spin chosen from the given random numbers (or from numbers
+    * shared by all models, if it is null). Models created from identically seeded Randoms, and stepped the same way,
+    * roll identically.
+    */
+   public Model(ObjData data, float scale, Integer baseRGB, Random random) {
+      if (random == null) {
+         random = SHARED_RANDOM;
+      }
       this.data = data;
       this.scale = scale;
       if (baseRGB != null) {
          this.baseRGB = baseRGB;
       }
-      Tuple3 rotationalAxis;
-      do {
-         rotationalAxis = new Tuple3((float) (Math.random() * 1000f - 500f),
-                                         (float) (Math.random() * 1000f - 500f),
-                                         (float) (Math.random() * 1000f - 500f));
-      } while (rotationalAxis.unitVector().dotProduct(UP_VECTOR) > .7);
-
-      Tuple3 velocity = new Tuple3((float) (Math.random() * 100f - 50f),
-                                   (float) (Math.random() * 200f - 100f),
-                                   (float) (Math.random() * 200f + 300f));
-      frame = new Frame(new Tuple3(600, 300, 300),  // location
-                        velocity,    // velocity, pixels per second
-                        //new Tuple3(-350, 460, 50));   // unit vector is axis, magnitude is degrees per second
-                        rotationalAxis);   // unit vector is axis, magnitude is degrees per second
-
-      System.out.println("New object. rotationalAxis: " + frame.rotationalAxis.toString());
+      throwModel(random);
+
       this.data.scale(scale, scale, scale);
       centerMass = this.data.getAveragePoint();
+
+      List<Tuple3> verts = this.data.getVerts();
+      vertexCount = verts.size();
+      vertexX = new float[vertexCount];
+      vertexY = new float[vertexCount];
+      vertexZ = new float[vertexCount];
+      for (int v = 0; v < vertexCount; v++) {
+         vertexX[v] = verts.get(v).getX();
+         vertexY[v] = verts.get(v).getY();
+         vertexZ[v] = verts.get(v).getZ();
+      }
+      hull = new MeshHull(vertexX, vertexY, vertexZ, vertexCount, this.data.getFaces());
+      nearVertices = new int[vertexCount];
+      float radius = 0;
+      for (int v = 0; v < vertexCount; v++) {
+         radius = Math.max(radius, (vertexX[v] * vertexX[v]) + (vertexY[v] * vertexY[v]) + (vertexZ[v] * vertexZ[v]));
+      }
+      boundingRadius = (float) Math.sqrt(radius);
    }
 
-   public void update(float elapsedTimeInSeconds, Tuple3 acceleration, float floorZValue) {
+   /*
+    * Puts the model back at the start, upright, with a velocity and spin chosen from the random numbers.
+    */
+   private void throwModel(Random random) {
+      float axisX;
+      float axisY;
+      float axisZ;
+      do {
+         axisX = (float) (random.nextDouble() * 1000f - 500f);
+         axisY = (float) (random.nextDouble() * 1000f - 500f);
+         axisZ = (float) (random.nextDouble() * 1000f - 500f);
+         // don't spin too nearly about the vertical axis
+      } while ((axisZ / (float) Math.sqrt((axisX * axisX) + (axisY * axisY) + (axisZ * axisZ))) > .7);
+
+      state.location.set(600, 300, 300);
+      state.velocity.set((float) (random.nextDouble() * 100f - 50f),   // pixels per second
+                         (float) (random.nextDouble() * 200f - 100f),
+                         (float) (random.nextDouble() * 200f + 300f));
+      state.rotationalAxis.set(axisX, axisY, axisZ);   // unit vector is axis, magnitude is degrees per second
+      state.setOrientation(1, 0, 0, 0);
+      moving = true;
+      hasPreviousState = false;
+      frame = null;
+      previousFrame = null;
+      trajectory = null;
+      relabeling = Quaternion.IDENTITY;
+      thrown = true;
+   }
+
+   /**
+    * Replays the recorded roll from its throw, instead of running the physics, drawn turned by the relabeling
+    * rotation (such as one from Die.getRelabeling(), see setRelabeling()), so that it comes to rest showing another
+    * face. Each step then only reads the next pose, and the model stops moving at the end of the recording.
+    * The roll is moved sideways along X by offsetX, and since there is nothing in the world but the floor, it is
+    * just as real anywhere along it. Nothing pushes a replaying model, and two of them don't collide at all, so
+    * models only start replaying through World3D.replay(), which keeps their paths apart.
+    */
+   void replay(Trajectory trajectory, Quaternion relabeling, float offsetX) {
+      this.trajectory = trajectory;
+      this.relabeling = relabeling;
+      trajectoryStep = 0;
+      trajectoryOffsetX = offsetX;
+      trajectory.getPose(0, state);
+      state.location.add(offsetX, 0, 0);
+      // A replayed model has no velocity or spin of its own
+      state.velocity.set(0, 0, 0);
+      state.rotationalAxis.set(0, 0, 0);
+      moving = true;
+      hasPreviousState = false;
+      frame = null;
+      previousFrame = null;
+   }
+
+   /**
+    * @return true if replaying the trajectory from its throw, moved sideways by offsetX, would ever bring the model
+    *         within reach of the other one, as it replays the rest of its own recording and then rests at its end
+    */
+   boolean wouldRunInto(Trajectory trajectory, float offsetX, Model other) {
+      int otherStep = other.trajectoryStep;
+      int steps = Math.max(trajectory.getStepCount(), other.trajectory.getStepCount() - otherStep);
+      MutableFrame pose = new MutableFrame();
+      MutableFrame otherPose = new MutableFrame();
+      float reach = boundingRadius + other.boundingRadius;
+      for (int step = 0; step <= steps; step++) {
+         trajectory.getPose(step, pose);
+         other.trajectory.getPose(otherStep + step, otherPose);
+         float dx = (pose.location.getX() + offsetX) - (otherPose.location.getX() + other.trajectoryOffsetX);
+         float dy = pose.location.getY() - otherPose.location.getY();
+         float dz = pose.location.getZ() - otherPose.location.getZ();
+         if (((dx * dx) + (dy * dy) + (dz * dz)) < (reach * reach)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Throws the model again from the start, with a new velocity and spin, and (unlike the first throw) from an
+    * orientation chosen uniformly at random, so no face starts out favored. Everything the model uses is reused,
+    * so a rethrow allocates nothing.
+    */
+   public void reset(Random random) {
+      throwModel(random);
+      // A uniformly distributed unit quaternion, from 3 uniform random numbers (Shoemake's method)
+      double u1 = random.nextDouble();
+      double u2 = random.nextDouble() * 2 * Math.PI;
+      double u3 = random.nextDouble() * 2 * Math.PI;
+      double a = Math.sqrt(1 - u1);
+      double b = Math.sqrt(u1);
+      state.setOrientation((float) (a * Math.sin(u2)), (float) (a * Math.cos(u2)),
+                           (float) (b * Math.sin(u3)), (float) (b * Math.cos(u3)));
+   }
+
+   /**
+    * Draws the model turned by the relabeling rotation (such as one from Die.getRelabeling()) before any other
+    * rotation. Since that is a symmetry of its shape, the roll looks just the same, and the physics is left exactly
+    * as it is, but the model shows another face, all the way to where it comes to rest. The relabeling lasts
+    * until the model is thrown again.
+    */
+   public void setRelabeling(Quaternion relabeling) {
+      this.relabeling = relabeling;
+   }
+
+   public Quaternion getRelabeling() {
+      return relabeling;
+   }
+
+   /**
+    * Positions every vertex of the model in the world according to the given frame, in a single pass.
+    */
+   public void positionVertices(Frame frame, float[] outX, float[] outY, float[] outZ) {
+      VertexKernel.transformPoints(frame.getAffineTransform(transform),
+                                   vertexX, vertexY, vertexZ, outX, outY, outZ, vertexCount);
+   }
+
+   public boolean isMoving() {
+      return moving;
+   }
+
+   /** @return true while the model is replaying a recorded roll, which nothing else can push it off of */
+   public boolean isReplaying() {
+      return trajectory != null;
+   }
+
+   /** @return true if the model moved in the last step, even if it has come to rest since, or was pushed since */
+   boolean hasMovedInLastStep() {
+      return movedInLastStep;
+   }
+
+   /**
+    * Gets the model ready for contact queries, in its current state. This must be called again once it turns.
+    */
+   void prepareContactQueries() {
+      state.getAffineTransform(contactTransform);
+   }
+
+   /**
+    * @return the index of the vertex that is farthest in the (world space) direction
+    */
+   int farthestVertex(float x, float y, float z) {
+      float[] m = contactTransform;
+      // The direction in model space, turned back by the transpose of the orientation
+      contactVertex = hull.support((m[0] * x) + (m[4] * y) + (m[8] * z),
+                                   (m[1] * x) + (m[5] * y) + (m[9] * z),
+                                   (m[2] * x) + (m[6] * y) + (m[10] * z), contactVertex);
+      return contactVertex;
+   }
+
+   /**
+    * @return how many vertices are within the distance of the farthest vertex in the (world space) direction
+    */
+   int countNear(float x, float y, float z, float distance) {
+      float[] m = contactTransform;
+      float modelX = (m[0] * x) + (m[4] * y) + (m[8] * z);
+      float modelY = (m[1] * x) + (m[5] * y) + (m[9] * z);
+      float modelZ = (m[2] * x) + (m[6] * y) + (m[10] * z);
+      contactVertex = hull.support(modelX, modelY, modelZ, contactVertex);
+      float limit = hull.distance(contactVertex, modelX, modelY, modelZ) - distance;
+      return hull.gather(modelX, modelY, modelZ, contactVertex, limit, nearVertices);
+   }
+
+   /**
+    * Positions the vertex where it is in the model's current state (even if it has been pushed since
+    * prepareContactQueries()).
+    */
+   void positionVertex(int vertex, MutableTuple3 dest) {
+      float[] m = contactTransform;
+      float x = vertexX[vertex], y = vertexY[vertex], z = vertexZ[vertex];
+      MutableTuple3 location = state.location;
+      dest.set((m[0] * x) + (m[1] * y) + (m[2]  * z) + location.getX(),
+               (m[4] * x) + (m[5] * y) + (m[6]  * z) + location.getY(),
+               (m[8] * x) + (m[9] * y) + (m[10] * z) + location.getZ());
+   }
 
+   /**
+    * Pushes the model out of another one it has run into, and changes its velocity by the given amount, at the given
+    * (world space) point of contact, which also changes its spin, the same way a bounce off the floor does.
+    * A model at rest is set moving again.
+    */
+   void collide(float pushX, float pushY, float pushZ,
+                float velocityChangeX, float velocityChangeY, float velocityChangeZ,
+                float contactX, float contactY, float contactZ) {
       if (!moving) {
-         return;
+         // start interpolating from where it was resting
+         previousState.set(state);
+         hasPreviousState = true;
+         moving = true;
       }
-      Frame nextFrame = frame.update(elapsedTimeInSeconds, acceleration);
+      // the torque is the cross product of the point of contact (from the model's origin) and the change in velocity
+      MutableTuple3 location = state.location;
+      float armX = contactX - location.getX();
+      float armY = contactY - location.getY();
+      float armZ = contactZ - location.getZ();
+      collisionTorque.set((armY * velocityChangeZ) - (armZ * velocityChangeY),
+                          (armZ * velocityChangeX) - (armX * velocityChangeZ),
+                          (armX * velocityChangeY) - (armY * velocityChangeX));
+      location.add(pushX, pushY, pushZ);
+      state.velocity.add(velocityChangeX, velocityChangeY, velocityChangeZ);
+      propped = true;
+      movedInLastStep = true;
+      state.rotationalAxis.multiply(1 - friction).addScaled(collisionTorque, 4 / rotationalInteria);
+      frame = null;
+      previousFrame = null;
+   }
 
-      // Check if a corner hit the floor by iterating through each face, and each vertex in each face,
-      // applying the current rotation matrix to each point, and seeing if it's lower than the floor.
+   /**
+    * Brings the model to rest, if it has nearly stopped moving and turning. This is how a model comes to rest
+    * lying flat on top of another one, just as it does on the floor.
+    */
+   void stopIfStill(Tuple3 acceleration) {
+      if (moving && ((state.velocity.magnitude() * dampeningFactor) < acceleration.magnitude()) &&
+          (state.rotationalAxis.magnitude() < 40)) {
+         moving = false;
+      }
+   }
 
-      List<Tuple3> pointsBelowFloor = new ArrayList<>();
-      List<Tuple3> pointsNearFloor = new ArrayList<>();
-      float lowestZ = 1000;
-//      StringBuilder sb = new StringBuilder();
-//      int v = 0;
-      for (Tuple3 vertex : data.getVerts()) {
-//         if (sb.length() > 0) {
-//            sb.append("\n");
-//         }
-         //Tuple3 positionedVertex = vertex.applyTransformation(_orientationTransform).add(_location);
-         Tuple3 positionedVertex = nextFrame.positionVertex(vertex);
-         float z = positionedVertex.getZ();
-//         sb.append(" v").append(v++)
-//           .append(":{").append(positionedVertex.getX())
-//           .append(",").append(positionedVertex.getY())
-//           .append(",").append(z).append("}");
-
-         if (z < (floorZValue +2)) {
-            pointsNearFloor.add(positionedVertex);
-         }
-         if (z < floorZValue) {
-            pointsBelowFloor.add(positionedVertex);
+   /**
+    * @return where the model is, and how it is moving. This is a copy, which later steps leave alone.
+    */
+   public Frame getFrame() {
+      if (frame == null) {
+         frame = state.toFrame();
+      }
+      return frame;
+   }
+
+   /**
+    * Puts the model in the given frame, such as to replay a roll from the same throw as another model.
+    */
+   public void setFrame(Frame frame) {
+      trajectory = null;
+      state.set(frame);
+      this.frame = frame;
+      hasPreviousState = false;
+      previousFrame = null;
+   }
+
+   /**
+    * @return the frame the given fraction of the way from the frame before the last step to the current one,
+    *         turned by the relabeling, for drawing. A model at rest is always at its current frame.
+    */
+   public Frame getInterpolatedFrame(float fraction) {
+      Frame interpolated;
+      if (!moving || !hasPreviousState) {
+         interpolated = getFrame();
+      }
+      else {
+         if (previousFrame == null) {
+            previousFrame = previousState.toFrame();
          }
-         if (z < lowestZ) {
-            lowestZ = z;
+         interpolated = previousFrame.interpolate(getFrame(), fraction);
+      }
+      if (relabeling == Quaternion.IDENTITY) {
+         return interpolated;
+      }
+      return new Frame(interpolated.location, interpolated.velocity, interpolated.rotationalAxis,
+                       relabeling.followedBy(interpolated.orientation));
+   }
+
+   public float getScale() {
+      return scale;
+   }
+
+   public int getBaseRGB() {
+      return baseRGB;
+   }
+
+   /**
+    * Advances the model by one simulation step. Once the model is moving, a step allocates nothing.
+    */
+   public void update(float elapsedTimeInSeconds, Tuple3 acceleration, float floorZValue) {
+      movedInLastStep = moving;
+      if (!moving) {
+         return;
+      }
+      previousState.set(state);
+      hasPreviousState = true;
+      frame = null;
+      previousFrame = null;
+      if (trajectory != null) {
+         trajectory.getPose(++trajectoryStep, state);
+         state.location.add(trajectoryOffsetX, 0, 0);
+         if (trajectoryStep >= trajectory.getStepCount()) {
+            moving = false;
+            trajectory = null;
          }
+         return;
       }
+      advance(elapsedTimeInSeconds, acceleration, floorZValue, MAX_SUBDIVISIONS);
+      propped = false;
+   }
+
+   private void advance(float elapsedTimeInSeconds, Tuple3 acceleration, float floorZValue, int subdivisions) {
+      if (!moving) {
+         return;
+      }
+      MutableFrame nextFrame = nextState.set(state).update(elapsedTimeInSeconds, acceleration);
 
-      if (pointsBelowFloor.isEmpty()) {
+      // Check if a corner hit the floor by finding the lowest vertex in the next frame, and seeing if it's lower
+      // than the floor. The lowest vertex is the one farthest along the bottom row of the transform, negated.
+      float[] m = nextFrame.getAffineTransform(transform);
+      float downX = -m[8];
+      float downY = -m[9];
+      float downZ = -m[10];
+      lowestVertex = hull.support(downX, downY, downZ, lowestVertex);
+      if ((m[11] - hull.distance(lowestVertex, downX, downY, downZ)) >= floorZValue) {
          // no collision, continue moving
-         frame = nextFrame;
+         state.set(nextFrame);
          return;
       }
 
+      // Position just the vertices near the floor (those less than 2 pixels above it)
+      int pointsNearFloor = hull.gather(downX, downY, downZ, lowestVertex, m[11] - (floorZValue + 2), nearVertices);
+      int pointsBelowFloor = 0;
+      float belowX = 0;
+      float belowY = 0;
+      float belowZ = 0;
+      float lowestZ = 1000;
+      for (int n = 0; n < pointsNearFloor; n++) {
+         int v = nearVertices[n];
+         float x = vertexX[v], y = vertexY[v], z = vertexZ[v];
+         float positionedZ = (m[8] * x) + (m[9] * y) + (m[10] * z) + m[11];
+         if (positionedZ < floorZValue) {
+            pointsBelowFloor++;
+            belowX += (m[0] * x) + (m[1] * y) + (m[2] * z) + m[3];
+            belowY += (m[4] * x) + (m[5] * y) + (m[6] * z) + m[7];
+            belowZ += positionedZ;
+         }
+         if (positionedZ < lowestZ) {
+            lowestZ = positionedZ;
+            lowestVertex = v;
+         }
+      }
+
       float boundDepth = floorZValue - lowestZ;
-      if (boundDepth > 1) {
+      if ((boundDepth > 1) && (subdivisions > 0)) {
          // If this bound went deeper than 2 pixels, split the time in half, and recompute each 1/2 frame
-         // this will cause recursion until we find the collision time frame within 1 pixels below the surface.
-         update(elapsedTimeInSeconds/2f, acceleration, floorZValue);
-         update(elapsedTimeInSeconds/2f, acceleration, floorZValue);
+         // this will cause recursion until we find the collision time frame within 1 pixels below the surface,
+         // or until the time has been split MAX_SUBDIVISIONS times, after which the model is just lifted out of the floor.
+         advance(elapsedTimeInSeconds/2f, acceleration, floorZValue, subdivisions - 1);
+         advance(elapsedTimeInSeconds/2f, acceleration, floorZValue, subdivisions - 1);
          return;
       }
 
-      //System.out.println(sb.toString());
-      Tuple3 centerMassBelowFloor = new Tuple3(0,0,0);
-      for (Tuple3 point : pointsBelowFloor) {
-         centerMassBelowFloor = centerMassBelowFloor.add(point);
-      }
-      centerMassBelowFloor = centerMassBelowFloor.divide(pointsBelowFloor.size());
-
       // move the object to the floor level
-      Tuple3 locDelta = new Tuple3(0, 0, boundDepth);
-      nextFrame = nextFrame.addLocation(locDelta);
-      centerMassBelowFloor = centerMassBelowFloor.add(locDelta);
+      nextFrame.location.add(0, 0, boundDepth);
+      centerMassBelowFloor.set(belowX, belowY, belowZ).divide(pointsBelowFloor).add(0, 0, boundDepth);
 
-      boolean anyFaceBelowFloor = pointsNearFloor.size() > 2;
-      Tuple3 positionedCenterMass = nextFrame.positionVertex(centerMass);
+      // A model can only come to rest on an edge when it is leaning against another model that holds it up
+      boolean anyFaceBelowFloor = (pointsNearFloor > 2) || (propped && (pointsNearFloor == 2));
+      nextFrame.positionVertex(centerMass, positionedCenterMass);
 
       // Check if we have stopped moving
       if (((nextFrame.velocity.magnitude() * dampeningFactor) < acceleration.magnitude()) &&
           (nextFrame.rotationalAxis.magnitude() < 40) && // degrees per second
           anyFaceBelowFloor) {
          moving = false;
-         frame = nextFrame;
       }
       else {
-         frame = bounce(nextFrame, centerMassBelowFloor, positionedCenterMass, elapsedTimeInSeconds, acceleration);
+         bounce(nextFrame, centerMassBelowFloor, positionedCenterMass, elapsedTimeInSeconds, acceleration);
       }
+      state.set(nextFrame);
    }
 
    static float dampeningFactor = 0.75f;
    static float friction = .15f;
    static float rotationalInteria = 30f;
 
-   protected Frame bounce(Frame frame, Tuple3 positionedCenterMassAtFloor, Tuple3 positionedCenterMass,
-                          float elapsedTimeInSeconds, Tuple3 acceleration) {
+   /**
+    * Changes the velocity and spin of the frame (in place) for a bounce off the floor.
+    */
+   protected void bounce(MutableFrame frame, MutableTuple3 positionedCenterMassAtFloor, MutableTuple3 positionedCenterMass,
+                         float elapsedTimeInSeconds, Tuple3 acceleration) {
       // If we are already moving upwards, this is still the previous bounce.
-      Tuple3 velocity = frame.velocity;
+      MutableTuple3 velocity = frame.velocity;
       if (velocity.getZ() > 0) {
-         return frame;
+         return;
       }
 
-      Tuple3 pointToCenter = positionedCenterMass.subtract(positionedCenterMassAtFloor);
+      pointToCenter.set(positionedCenterMass).subtract(positionedCenterMassAtFloor);
       // Acceleration is expressed in pixels per second / second, and
       // torque is expressed in radians per second,
       // so we need to multiply the crossProduct by elapsedTimeSecond, and also convert the torque into Radians.
       // we can do this in one step with the call to multiply((float)(Math.toRadians(elapsedTimeInSeconds)))
-      Tuple3 newTorque = pointToCenter.crossProduct(acceleration)
-                                      .multiply(elapsedTimeInSeconds * 4 / rotationalInteria);
+      torque.setCrossProduct(pointToCenter, acceleration)
+            .multiply(elapsedTimeInSeconds * 4 / rotationalInteria);
       // TODO: Since the torque is applied off-center, should there be a lateral force as well?
 
 
       // TODO: any existing lateral movement should be converted into rotational momentum by friction
 
 
-      float percentBounce = pointToCenter.unitVector().dotProduct(UP_VECTOR);
+      float percentBounce = pointToCenter.dotProduct(UP_VECTOR) / (float) pointToCenter.magnitude();
       percentBounce *= .6;
 
       // If the object is rotating, some of that rotation should be turned in lateral movement:
-      Tuple3 nextFramePositionedCenterMassAtFloor = positionedCenterMassAtFloor.subtract(frame.location)
-                                                                               .applyTransformation(frame.orientationTransform)
-                                                                               .add(frame.location);
-      Tuple3 movementOfCenterMassAtFloor = nextFramePositionedCenterMassAtFloor.subtract(positionedCenterMassAtFloor);
-      //movementOfCenterMassAtFloor = movementOfCenterMassAtFloor.multiply(1-percentBounce*percentBounce);
-      Tuple3 newVelocity = new Tuple3(velocity.getX() * .70f - movementOfCenterMassAtFloor.getX(),
-                                      velocity.getY() * .70f - movementOfCenterMassAtFloor.getY(),
-                                      (- velocity.getZ() * percentBounce));
-              //.multiply(dampeningFactor);
-System.out.println("newVelocity: " + newVelocity);
-      Frame newFrame = frame.setVelocity(newVelocity);
-      Tuple3 newRotationalAxis = addRotationalVectors(newFrame.rotationalAxis.multiply(1 - friction), newTorque);
-      return newFrame.setRotationalAxis(newRotationalAxis);
+      MutableTuple3 location = frame.location;
+      frame.getOrientationTransform().multiplyInto(positionedCenterMassAtFloor.getX() - location.getX(),
+                                                  positionedCenterMassAtFloor.getY() - location.getY(),
+                                                  positionedCenterMassAtFloor.getZ() - location.getZ(),
+                                                  movementAtFloor)
+                                    .add(location)
+                                    .subtract(positionedCenterMassAtFloor);
+      velocity.set(velocity.getX() * .70f - movementAtFloor.getX(),
+                   velocity.getY() * .70f - movementAtFloor.getY(),
+                   (- velocity.getZ() * percentBounce));
+      // This is the sum addRotationalVectors() comes to, since scaling by powers of 2 is exact.
+      frame.rotationalAxis.multiply(1 - friction).add(torque);
    }
    public Tuple3 addRotationalVectors(Tuple3 rv1, Tuple3 rv2) {
       if ((rv1.magnitude() > 180) || (rv2.magnitude() > 180)) {
@@ -197,13 +554,27 @@ System.out.println("newVelocity: " + newVelocity);
     */
    public List<ColoredFace> getColoredFaces() {
       List<ColoredFace> faces = new ArrayList<>();
+      float[] upness = new float[data.getFaceCount()];
       for (Face face : data.getFaces()) {
          ColoredFace newFace = new ColoredFace(face, baseRGB);
-         newFace.applyTransformation(frame.orientationTransform);
-         newFace.move(frame.location);
+         newFace.applyTransformation(getFrame().getOrientationTransform());
+         newFace.move(getFrame().location);
+         upness[faces.size()] = newFace.getCommonNormal().dotProduct(UP_VECTOR);
          faces.add(newFace);
       }
+      int[] colors = new int[faces.size()];
+      getFaceColors(upness, colors);
+      for (int f = 0; f < colors.length; f++) {
+         faces.get(f).setColor(colors[f]);
+      }
       return faces;
    }
 
+   /*
+    * Fills in the color of each face, given how much each face points up (the Z component of its world normal).
+    */
+   public void getFaceColors(float[] upness, int[] colors) {
+      Arrays.fill(colors, baseRGB);
+   }
+
 }
@@ -0,0 +1,129 @@
+package com.ostrowski.graphics;
+
+import com.ostrowski.graphics.model.MutableMatrix3x3;
+import com.ostrowski.graphics.model.MutableQuaternion;
+import com.ostrowski.graphics.model.MutableTuple3;
+import com.ostrowski.graphics.model.Tuple3;
+
+/**
+ * The same motion state as a Frame, changed in place, which is what a Model steps its physics with.
+ * <p>
+ * Every Frame operation returns a new Frame, built from new Tuple3s and Quaternions. That is fine for setting up
+ * a throw, or for handing a frame to someone else, but a roll takes hundreds of steps a second, each of which
+ * may be split in half several times. A MutableFrame makes the same moves with none of those allocations.
+ */
+public class MutableFrame
+{
+   public final  MutableTuple3     location             = new MutableTuple3();
+   public final  MutableTuple3     velocity             = new MutableTuple3();
+   public final  MutableTuple3     rotationalAxis       = new MutableTuple3();
+   /* Changed only through this frame, so the matrix is rebuilt whenever it changes */
+   private final MutableQuaternion orientation          = new MutableQuaternion();
+   /* The matrix of the orientation, which is only rebuilt when something is transformed by it */
+   private final MutableMatrix3x3  orientationTransform = new MutableMatrix3x3();
+   private       boolean           transformIsCurrent   = true;
+
+   public MutableFrame() {
+   }
+
+   public MutableFrame(Frame frame) {
+      set(frame);
+   }
+
+   public MutableFrame set(Frame frame) {
+      location.set(frame.location);
+      velocity.set(frame.velocity);
+      rotationalAxis.set(frame.rotationalAxis);
+      orientation.set(frame.orientation);
+      transformIsCurrent = false;
+      return this;
+   }
+
+   public MutableFrame set(MutableFrame frame) {
+      location.set(frame.location);
+      velocity.set(frame.velocity);
+      rotationalAxis.set(frame.rotationalAxis);
+      orientation.set(frame.orientation);
+      transformIsCurrent = false;
+      return this;
+   }
+
+   /**
+    * @return the orientation, which is for reading only: change it with setOrientation().
+    */
+   public MutableQuaternion getOrientation() {
+      return orientation;
+   }
+
+   /**
+    * Sets the orientation to the unit quaternion (w, x, y, z).
+    */
+   public MutableFrame setOrientation(float w, float x, float y, float z) {
+      orientation.set(w, x, y, z);
+      transformIsCurrent = false;
+      return this;
+   }
+
+   /**
+    * @return the rotation matrix of the orientation, which is only valid until the orientation next changes.
+    */
+   public MutableMatrix3x3 getOrientationTransform() {
+      if (!transformIsCurrent) {
+         orientationTransform.set(orientation);
+         transformIsCurrent = true;
+      }
+      return orientationTransform;
+   }
+
+   /** @return a new (immutable) Frame in the current state of this one */
+   public Frame toFrame() {
+      return new Frame(location.toTuple3(), velocity.toTuple3(), rotationalAxis.toTuple3(),
+                       orientation.toQuaternion());
+   }
+
+   /**
+    * Moves this frame on by the elapsed time under the given acceleration, just as Frame.update() does.
+    */
+   public MutableFrame update(float elapsedTimeInSeconds, Tuple3 acceleration) {
+      float initialX = velocity.getX();
+      float initialY = velocity.getY();
+      float initialZ = velocity.getZ();
+      velocity.addScaled(acceleration, elapsedTimeInSeconds);
+      // move by the average of the initial and the new velocity
+      location.add((((initialX + velocity.getX()) / 2.0f) * elapsedTimeInSeconds),
+                   (((initialY + velocity.getY()) / 2.0f) * elapsedTimeInSeconds),
+                   (((initialZ + velocity.getZ()) / 2.0f) * elapsedTimeInSeconds));
+      double rotationInDegrees = rotationalAxis.magnitude() * elapsedTimeInSeconds;
+      if (rotationInDegrees != 0) {
+         orientation.rotate(rotationalAxis.getX(), rotationalAxis.getY(), rotationalAxis.getZ(), rotationInDegrees);
+         transformIsCurrent = false;
+      }
+      return this;
+   }
+
+   /** Stores where the model space vertex is in the world, in this frame, in dest, and returns dest. */
+   public MutableTuple3 positionVertex(Tuple3 vertex, MutableTuple3 dest) {
+      return positionVertex(vertex.getX(), vertex.getY(), vertex.getZ(), dest);
+   }
+
+   public MutableTuple3 positionVertex(float x, float y, float z, MutableTuple3 dest) {
+      return getOrientationTransform().multiplyInto(x, y, z, dest).add(location);
+   }
+
+   /**
+    * Fills dest with the affine transform that positions a vertex the same way positionVertex does,
+    * for use with the VertexKernel.
+    */
+   public float[] getAffineTransform(float[] dest) {
+      MutableMatrix3x3 orientationTransform = getOrientationTransform();
+      for (int row = 0; row < 3; row++) {
+         dest[(row * 4)]     = orientationTransform.get(row, 0);
+         dest[(row * 4) + 1] = orientationTransform.get(row, 1);
+         dest[(row * 4) + 2] = orientationTransform.get(row, 2);
+      }
+      dest[3]  = location.getX();
+      dest[7]  = location.getY();
+      dest[11] = location.getZ();
+      return dest;
+   }
+}
@@ -0,0 +1,279 @@
+package com.ostrowski.graphics;
+
+import java.util.List;
+
+import com.ostrowski.graphics.model.Face;
+import com.ostrowski.graphics.model.Matrix3x3;
+import com.ostrowski.graphics.model.Texture;
+import com.ostrowski.graphics.model.Tuple2;
+
+/**
+ * The world and screen positions of every vertex of one Model, for the current frame.
+ * <p>
+ * Each unique vertex of the model is positioned and projected exactly once per frame, into
+ * arrays that are reused from frame to frame. Faces refer to their vertices by index, so
+ * the back-face test, the outline, the shadows and the painting all read the same projected
+ * points, instead of each of them projecting every face's vertices again.
+ * <p>
+ * The shadow of the model is cast by projecting the same vertices onto the floor, and taking their convex hull.
+ * Since every die is convex, the convex hull of its projected vertices is also its exact silhouette on screen.
+ * Once the model has come to rest, none of this changes, so it is computed one last time and then kept.
+ */
+class ProjectedModel
+{
+   final Model      model;
+   final List<Face> faces;
+   final int        vertexCount;
+   final int        faceCount;
+
+   // per vertex:
+   final float[] worldX;
+   final float[] worldY;
+   final float[] worldZ;
+   final float[] screenX;
+   final float[] screenY;
+   final float[] inverseDepth;
+   private final float[] viewZ;
+   // the screen position of the shadow of each vertex
+   private final int[] pointX;
+   private final int[] pointY;
+   private final int[] hullOrder;
+   private final int[] hull;
+
+   // per face:
+   /**
+    * The rounded points of each face in the frame buffer, as (x,y) pairs, ready to be handed to the Rasterizer.
+    * These are the screen points multiplied by the render scale.
+    */
+   final int[][]   facePoints;
+   /** The inverse depth of each point of each face */
+   final float[][] faceInverseDepths;
+   final boolean[] facingAway;
+   final float[]   normalX;
+   final float[]   normalY;
+   final float[]   normalZ;
+   final int[]     colors;
+   /** The average texel over the texture coordinates of each face, with the texels the texture doesn't cover as 0 */
+   final int[]     averageTexels;
+   /** The area each face covers in the texture, in texels */
+   final float[]   texelAreas;
+   // the normal of each face, in model space
+   private final float[] modelNormalX;
+   private final float[] modelNormalY;
+   private final float[] modelNormalZ;
+   private final float[] frameTransform = new float[VertexKernel.AFFINE_SIZE];
+   private final float[] viewAffine     = new float[VertexKernel.AFFINE_SIZE];
+
+   /**
+    * The screen points of the silhouette of the model (the convex hull of its projected vertices), as (x,y) pairs.
+    * Points past the end of the hull repeat its last point.
+    */
+   final int[]     silhouettePolygon;
+   /**
+    * The screen points of the convex hull of the model's shadow, as (x,y) pairs. The array holds a point for every
+    * vertex, so it never needs to be reallocated. Points past the end of the hull repeat its last point.
+    */
+   final int[]     shadowPolygon;
+
+   private boolean atRest          = false;
+   private boolean shadowIsCurrent = false;
+   private float   renderScale     = 1f;
+
+   ProjectedModel(Model model) {
+      this.model = model;
+      faces = model.data.getFaces();
+      vertexCount = model.vertexCount;
+      faceCount = faces.size();
+      worldX       = new float[vertexCount];
+      worldY       = new float[vertexCount];
+      worldZ       = new float[vertexCount];
+      screenX      = new float[vertexCount];
+      screenY      = new float[vertexCount];
+      inverseDepth = new float[vertexCount];
+      viewZ        = new float[vertexCount];
+      pointX       = new int[vertexCount];
+      pointY       = new int[vertexCount];
+      hullOrder    = new int[vertexCount];
+      hull         = new int[vertexCount + 1];
+      shadowPolygon = new int[vertexCount * 2];
+      silhouettePolygon = new int[vertexCount * 2];
+
+      facePoints        = new int[faceCount][];
+      faceInverseDepths = new float[faceCount][];
+      for (int f = 0; f < faceCount; f++) {
+         facePoints[f]        = new int[faces.get(f).vertexCount * 2];
+         faceInverseDepths[f] = new float[faces.get(f).vertexCount];
+      }
+      facingAway = new boolean[faceCount];
+      normalX    = new float[faceCount];
+      normalY    = new float[faceCount];
+      normalZ    = new float[faceCount];
+      colors     = new int[faceCount];
+      averageTexels = new int[faceCount];
+      texelAreas    = new float[faceCount];
+
+      modelNormalX = new float[faceCount];
+      modelNormalY = new float[faceCount];
+      modelNormalZ = new float[faceCount];
+      for (int f = 0; f < faceCount; f++) {
+         Face face = faces.get(f);
+         int v0 = face.getVertexIndex(0);
+         int v1 = face.getVertexIndex(1);
+         int v2 = face.getVertexIndex(2);
+         float e01x = model.vertexX[v0] - model.vertexX[v1];
+         float e01y = model.vertexY[v0] - model.vertexY[v1];
+         float e01z = model.vertexZ[v0] - model.vertexZ[v1];
+         float e12x = model.vertexX[v1] - model.vertexX[v2];
+         float e12y = model.vertexY[v1] - model.vertexY[v2];
+         float e12z = model.vertexZ[v1] - model.vertexZ[v2];
+         float nx = (e01y * e12z) - (e01z * e12y);
+         float ny = (e01z * e12x) - (e01x * e12z);
+         float nz = (e01x * e12y) - (e01y * e12x);
+         float length = (float) Math.sqrt((nx * nx) + (ny * ny) + (nz * nz));
+         modelNormalX[f] = nx / length;
+         modelNormalY[f] = ny / length;
+         modelNormalZ[f] = nz / length;
+      }
+   }
+
+   /* The number of samples along each edge of a triangle of texture coordinates, when averaging its texels */
+   private static final int TEXEL_SAMPLES = 8;
+
+   /**
+    * Measures the area and the average texel that each face covers in the texture. Faces never change their
+    * texture coordinates, so this only needs to be done once.
+    */
+   void measureTexture(Texture texture) {
+      float width = texture.getWidth();
+      float height = texture.getHeight();
+      for (int f = 0; f < faceCount; f++) {
+         Face face = faces.get(f);
+         long red = 0, green = 0, blue = 0;
+         int samples = 0;
+         float area = 0;
+         for (int t = 0; t < (face.vertexCount - 2); t++) {
+            // The face is a fan of triangles, just as the Rasterizer fills it
+            Tuple2 a = face.getTexCoord(0);
+            Tuple2 b = face.getTexCoord(t + 1);
+            Tuple2 c = face.getTexCoord(t + 2);
+            float abU = b.getX() - a.getX(), abV = b.getY() - a.getY();
+            float acU = c.getX() - a.getX(), acV = c.getY() - a.getY();
+            float triangleArea = Math.abs((abU * acV) - (abV * acU)) * width * height / 2;
+            area += triangleArea;
+            // Each sample covers about the area of the triangle divided among the samples, which picks its mipmap level
+            float footprint = (float) Math.sqrt(triangleArea * 2) / TEXEL_SAMPLES;
+            for (int i = 0; i <= TEXEL_SAMPLES; i++) {
+               for (int j = 0; j <= (TEXEL_SAMPLES - i); j++) {
+                  float u = a.getX() + (((abU * i) + (acU * j)) / TEXEL_SAMPLES);
+                  float v = a.getY() + (((abV * i) + (acV * j)) / TEXEL_SAMPLES);
+                  int xt = Math.round(u * width);
+                  int yt = Math.round(v * height);
+                  if ((xt > 0) && (yt > 0) && (xt < width) && (yt < height)) {
+                     int rgb = texture.sample(u, v, footprint);
+                     red   += (rgb >> 16) & 0xFF;
+                     green += (rgb >>  8) & 0xFF;
+                     blue  +=  rgb        & 0xFF;
+                  }
+                  samples++;
+               }
+            }
+         }
+         texelAreas[f] = area;
+         averageTexels[f] = (samples == 0) ? 0 : (int) (((red / samples) << 16) | ((green / samples) << 8) | (blue / samples));
+      }
+   }
+
+   /**
+    * @return the area the face covers on the screen, in pixels, as of the last projection.
+    */
+   float getScreenArea(int faceIndex) {
+      int[] points = facePoints[faceIndex];
+      long doubleArea = 0;
+      for (int p = 0; p < points.length; p += 2) {
+         int next = (p + 2) % points.length;
+         doubleArea += ((long) points[p] * points[next + 1]) - ((long) points[next] * points[p + 1]);
+      }
+      return Math.abs(doubleArea) / 2f;
+   }
+
+   /**
+    * Positions every vertex of the model in the world using its current frame, then projects it onto the screen.
+    * The face points are scaled by the renderScale, for frame buffers that are smaller than the screen.
+    * A moving model is drawn the stepFraction of the way from its previous step to its current one.
+    * Does nothing once the model has been projected at rest, at the same render scale.
+    */
+   void project(Matrix3x3 viewTransform, float renderScale, float stepFraction) {
+      if (atRest && (renderScale == this.renderScale)) {
+         return;
+      }
+      this.renderScale = renderScale;
+      // Position the vertices in the world, and then rotate them into view space, a whole mesh at a time
+      Frame frame = model.getInterpolatedFrame(stepFraction);
+      model.positionVertices(frame, worldX, worldY, worldZ);
+      VertexKernel.transformPoints(VertexKernel.setAffine(viewAffine, viewTransform, null),
+                                   worldX, worldY, worldZ, screenX, screenY, viewZ, vertexCount);
+      for (int v = 0; v < vertexCount; v++) {
+         float depthScale = World3D.getDepthScale(viewZ[v]);
+         screenX[v] *= depthScale;
+         screenY[v] *= depthScale;
+         inverseDepth[v] = World3D.getInverseDepth(viewZ[v]);
+      }
+      // Rotating the model space normals keeps them unit length
+      VertexKernel.transformDirections(frame.getAffineTransform(frameTransform),
+                                       modelNormalX, modelNormalY, modelNormalZ, normalX, normalY, normalZ, faceCount);
+
+      for (int f = 0; f < faceCount; f++) {
+         Face face = faces.get(f);
+         int[] points = facePoints[f];
+         float[] depths = faceInverseDepths[f];
+         for (int p = 0; p < face.vertexCount; p++) {
+            int v = face.getVertexIndex(p);
+            points[p * 2]       = Math.round(screenX[v] * renderScale);
+            points[(p * 2) + 1] = Math.round(screenY[v] * renderScale);
+            depths[p]           = inverseDepth[v];
+         }
+
+         int v0 = face.getVertexIndex(0);
+         int v1 = face.getVertexIndex(1);
+         int v2 = face.getVertexIndex(2);
+         // The z component of the cross product of the first two screen edges tells us which way the face is facing
+         float s01x = screenX[v0] - screenX[v1], s01y = screenY[v0] - screenY[v1];
+         float s12x = screenX[v1] - screenX[v2], s12y = screenY[v1] - screenY[v2];
+         facingAway[f] = ((s01x * s12y) - (s01y * s12x)) < 0;
+      }
+
+      for (int v = 0; v < vertexCount; v++) {
+         pointX[v] = Math.round(screenX[v]);
+         pointY[v] = Math.round(screenY[v]);
+      }
+      ConvexHull.compute(pointX, pointY, vertexCount, hullOrder, hull, silhouettePolygon);
+      model.getFaceColors(normalZ, colors);
+      atRest = !model.isMoving();
+      shadowIsCurrent = false;
+   }
+
+   /**
+    * Casts the shadow of the model onto the floor, and stores the convex hull of the shadow in shadowPolygon.
+    * Since every die is convex, the hull of its shadowed vertices is exactly its shadow, and can be drawn
+    * with a single polygon.
+    *
+    * @param shadowTransform the 3x4 row-major matrix that maps a world point onto the floor, in view space
+    */
+   void projectShadow(float[] shadowTransform) {
+      if (shadowIsCurrent) {
+         return;
+      }
+      float[] m = shadowTransform;
+      for (int v = 0; v < vertexCount; v++) {
+         float x = worldX[v], y = worldY[v], z = worldZ[v];
+         float viewX = (m[0] * x) + (m[1] * y) + (m[2]  * z) + m[3];
+         float viewY = (m[4] * x) + (m[5] * y) + (m[6]  * z) + m[7];
+         float viewZ = (m[8] * x) + (m[9] * y) + (m[10] * z) + m[11];
+         float depthScale = World3D.getDepthScale(viewZ);
+         pointX[v] = Math.round(viewX * depthScale);
+         pointY[v] = Math.round(viewY * depthScale);
+      }
+      ConvexHull.compute(pointX, pointY, vertexCount, hullOrder, hull, shadowPolygon);
+      shadowIsCurrent = true;
+   }
+}
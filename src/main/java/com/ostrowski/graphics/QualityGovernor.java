@@ -0,0 +1,147 @@
+package com.ostrowski.graphics;
+
+import java.util.Arrays;
+
+import com.ostrowski.graphics.model.Texture;
+
+/**
+ * Holds the cost of each frame near a target, by trading away the quality of a World3D's rendering when frames run
+ * over, and taking it back when there is time to spare.
+ * <p>
+ * The caller reports how long each frame took (the update plus the paint). Every EVALUATION_FRAMES frames, the
+ * DECISION_PERCENTILE frame time of just those frames decides: over the target steps down to the next cheaper level,
+ * and under HEADROOM of the target steps back up. A change of level starts a new evaluation, so only frames measured
+ * at the current level count towards a decision, and each step is judged by what it actually costs.
+ * <p>
+ * The recent frame times are kept in a fixed ring of WINDOW_SIZE entries, so reporting a frame never allocates.
+ */
+public class QualityGovernor
+{
+   /**
+    * One combination of the World3D's quality settings.
+    */
+   public static class QualityLevel
+   {
+      public final float             renderScale;
+      public final Texture.Filtering textureFiltering;
+      public final boolean           shadowsEnabled;
+      public final float             lodPixelThreshold;
+      public final float             lodTexelsPerPixel;
+
+      public QualityLevel(float renderScale, Texture.Filtering textureFiltering, boolean shadowsEnabled,
+                          float lodPixelThreshold, float lodTexelsPerPixel) {
+         this.renderScale = renderScale;
+         this.textureFiltering = textureFiltering;
+         this.shadowsEnabled = shadowsEnabled;
+         this.lodPixelThreshold = lodPixelThreshold;
+         this.lodTexelsPerPixel = lodTexelsPerPixel;
+      }
+
+      @Override
+      public String toString() {
+         return "QualityLevel{renderScale=" + renderScale + ", textureFiltering=" + textureFiltering +
+                ", shadowsEnabled=" + shadowsEnabled + ", lodPixelThreshold=" + lodPixelThreshold +
+                ", lodTexelsPerPixel=" + lodTexelsPerPixel + "}";
+      }
+   }
+
+   /** The quality levels, from the best looking (level 0) to the cheapest */
+   public static final QualityLevel[] LEVELS = {
+      new QualityLevel(1.00f, Texture.Filtering.TRILINEAR, true,  World3D.DEFAULT_LOD_PIXEL_THRESHOLD,     World3D.DEFAULT_LOD_TEXELS_PER_PIXEL),
+      new QualityLevel(1.00f, Texture.Filtering.BILINEAR,  true,  World3D.DEFAULT_LOD_PIXEL_THRESHOLD * 2, World3D.DEFAULT_LOD_TEXELS_PER_PIXEL / 4),
+      new QualityLevel(0.75f, Texture.Filtering.BILINEAR,  true,  World3D.DEFAULT_LOD_PIXEL_THRESHOLD * 4, World3D.DEFAULT_LOD_TEXELS_PER_PIXEL / 4),
+      new QualityLevel(0.75f, Texture.Filtering.NEAREST,   false, World3D.DEFAULT_LOD_PIXEL_THRESHOLD * 8, World3D.DEFAULT_LOD_TEXELS_PER_PIXEL / 16),
+      new QualityLevel(0.50f, Texture.Filtering.NEAREST,   false, World3D.DEFAULT_LOD_PIXEL_THRESHOLD * 8, World3D.DEFAULT_LOD_TEXELS_PER_PIXEL / 16),
+   };
+
+   public static final int   WINDOW_SIZE         = 120;
+   public static final int   EVALUATION_FRAMES   = 30;
+   public static final float DECISION_PERCENTILE = 0.9f;
+   /* The fraction of the target that frames have to come in under before the quality is raised again */
+   public static final float HEADROOM            = 0.6f;
+
+   private final World3D world;
+   private final long    targetNanos;
+   private final long[]  frameNanos            = new long[WINDOW_SIZE];
+   private final long[]  sortedNanos           = new long[WINDOW_SIZE];
+   private       int     nextFrame             = 0;
+   private       int     recordedFrames        = 0;
+   private       int     framesSinceEvaluation = 0;
+   private       int     level                 = 0;
+
+   public QualityGovernor(World3D world, float targetFrameMillis) {
+      this.world = world;
+      this.targetNanos = (long) (targetFrameMillis * 1_000_000);
+      apply();
+   }
+
+   /**
+    * Reports how long the latest frame took, which may change the quality level.
+    */
+   public synchronized void recordFrame(long nanos) {
+      frameNanos[nextFrame] = nanos;
+      nextFrame = (nextFrame + 1) % WINDOW_SIZE;
+      recordedFrames = Math.min(recordedFrames + 1, WINDOW_SIZE);
+      if (++framesSinceEvaluation < EVALUATION_FRAMES) {
+         return;
+      }
+      framesSinceEvaluation = 0;
+      long decidingNanos = getPercentileNanos(EVALUATION_FRAMES, DECISION_PERCENTILE);
+      if ((decidingNanos > targetNanos) && (level < (LEVELS.length - 1))) {
+         setLevel(level + 1);
+      }
+      else if ((decidingNanos < (targetNanos * HEADROOM)) && (level > 0)) {
+         setLevel(level - 1);
+      }
+   }
+
+   /**
+    * Goes back to the best quality, such as once nothing is moving, so the frame that stays on the screen looks its best.
+    */
+   public synchronized void reset() {
+      setLevel(0);
+   }
+
+   public synchronized void setLevel(int level) {
+      this.level = Math.max(0, Math.min(level, LEVELS.length - 1));
+      framesSinceEvaluation = 0;
+      apply();
+   }
+
+   public synchronized int getLevel() {
+      return level;
+   }
+
+   public synchronized QualityLevel getQualityLevel() {
+      return LEVELS[level];
+   }
+
+   /**
+    * @return the frame time, in milliseconds, that the given fraction (such as 0.5 or 0.99) of the recent frames
+    *         took no longer than, or 0 if no frames have been reported yet.
+    */
+   public synchronized float getFrameTimePercentile(float percentile) {
+      return getPercentileNanos(recordedFrames, percentile) / 1_000_000f;
+   }
+
+   /* The percentile of the most recent count frame times */
+   private long getPercentileNanos(int count, float percentile) {
+      if (count == 0) {
+         return 0;
+      }
+      for (int i = 0; i < count; i++) {
+         sortedNanos[i] = frameNanos[Math.floorMod(nextFrame - 1 - i, WINDOW_SIZE)];
+      }
+      Arrays.sort(sortedNanos, 0, count);
+      int index = (int) Math.ceil(percentile * count) - 1;
+      return sortedNanos[Math.max(0, Math.min(index, count - 1))];
+   }
+
+   private void apply() {
+      QualityLevel quality = LEVELS[level];
+      world.setRenderScale(quality.renderScale);
+      world.setTextureFiltering(quality.textureFiltering);
+      world.setShadowsEnabled(quality.shadowsEnabled);
+      world.setLevelOfDetail(quality.lodPixelThreshold, quality.lodTexelsPerPixel);
+   }
+}
@@ -0,0 +1,122 @@
+package com.ostrowski.graphics;
+
+/**
+ * A scanline triangle rasterizer built on integer edge functions.
+ * All the per-triangle work (edge setup, winding, fill rule) is done once, and then each
+ * row of the triangle is reduced to a single [xStart, xEnd) span, so only the covered
+ * pixels are ever handed to the shader.
+ * <p>
+ * Pixels are sampled at their integer coordinates (the same convention World3D uses
+ * for the projected points), and the top-left fill rule is applied, so two triangles
+ * that share an edge (such as the two halves of a quad) never both cover the same pixel.
+ */
+public final class Rasterizer
+{
+   public interface SpanShader {
+      /**
+       * Called once for each row of a triangle that has covered pixels.
+       *
+       * @param y      the row being shaded
+       * @param xStart the first covered pixel on the row
+       * @param xEnd   one past the last covered pixel on the row
+       */
+      void shadeSpan(int y, int xStart, int xEnd);
+   }
+
+   private Rasterizer() {
+   }
+
+   /**
+    * Rasterize the triangle (x0,y0), (x1,y1), (x2,y2), clipped to the rectangle
+    * [clipMinX, clipMaxX) x [clipMinY, clipMaxY). The vertices may be given in either winding.
+    */
+   public static void fillTriangle(int x0, int y0, int x1, int y1, int x2, int y2,
+                                   int clipMinX, int clipMinY, int clipMaxX, int clipMaxY,
+                                   SpanShader shader) {
+      // twice the signed area. Positive means the points are clockwise on screen (y grows downward)
+      long area = ((long)(x1 - x0) * (y2 - y0)) - ((long)(y1 - y0) * (x2 - x0));
+      if (area == 0) {
+         // degenerate triangles cover no pixels
+         return;
+      }
+      if (area < 0) {
+         // swap vertex 1 and 2, so we always walk the edges clockwise
+         int t = x1; x1 = x2; x2 = t;
+         t = y1; y1 = y2; y2 = t;
+      }
+
+      int minY = Math.max(clipMinY, Math.min(y0, Math.min(y1, y2)));
+      int maxY = Math.min(clipMaxY - 1, Math.max(y0, Math.max(y1, y2)));
+      int minX = Math.max(clipMinX, Math.min(x0, Math.min(x1, x2)));
+      int maxX = Math.min(clipMaxX - 1, Math.max(x0, Math.max(x1, x2)));
+      if ((minY > maxY) || (minX > maxX)) {
+         return;
+      }
+
+      // Each edge (a->b) has the edge function E(x,y) = A*x + B*y + C, which is positive
+      // for points to the inside (right hand side) of the edge.
+      long a01 = y0 - y1, b01 = x1 - x0, c01 = ((long) x0 * y1) - ((long) y0 * x1) - bias(x0, y0, x1, y1);
+      long a12 = y1 - y2, b12 = x2 - x1, c12 = ((long) x1 * y2) - ((long) y1 * x2) - bias(x1, y1, x2, y2);
+      long a20 = y2 - y0, b20 = x0 - x2, c20 = ((long) x2 * y0) - ((long) y2 * x0) - bias(x2, y2, x0, y0);
+
+      for (int y = minY; y <= maxY; y++) {
+         // Intersect the half-planes of all three edges with this row
+         long left = minX;
+         long right = maxX;
+         long e;
+
+         e = (b01 * y) + c01;
+         if (a01 > 0)      left  = Math.max(left,  ceilDiv(-e, a01));
+         else if (a01 < 0) right = Math.min(right, Math.floorDiv(e, -a01));
+         else if (e < 0)   continue;
+
+         e = (b12 * y) + c12;
+         if (a12 > 0)      left  = Math.max(left,  ceilDiv(-e, a12));
+         else if (a12 < 0) right = Math.min(right, Math.floorDiv(e, -a12));
+         else if (e < 0)   continue;
+
+         e = (b20 * y) + c20;
+         if (a20 > 0)      left  = Math.max(left,  ceilDiv(-e, a20));
+         else if (a20 < 0) right = Math.min(right, Math.floorDiv(e, -a20));
+         else if (e < 0)   continue;
+
+         if (left <= right) {
+            shader.shadeSpan(y, (int) left, (int) right + 1);
+         }
+      }
+   }
+
+   /**
+    * Rasterize a triangle or a quad, given as an array of (x,y) pairs.
+    * Quads are split along the 0-2 diagonal into the triangles 0-1-2 and 2-3-0.
+    * The triangleIndex passed to the shader tells it which half is being drawn.
+    */
+   public static void fillFace(int[] points, int clipMinX, int clipMinY, int clipMaxX, int clipMaxY,
+                               FaceSpanShader shader) {
+      fillTriangle(points[0], points[1], points[2], points[3], points[4], points[5],
+                   clipMinX, clipMinY, clipMaxX, clipMaxY,
+                   (y, xStart, xEnd) -> shader.shadeSpan(0, y, xStart, xEnd));
+      if (points.length >= 8) {
+         fillTriangle(points[4], points[5], points[6], points[7], points[0], points[1],
+                      clipMinX, clipMinY, clipMaxX, clipMaxY,
+                      (y, xStart, xEnd) -> shader.shadeSpan(1, y, xStart, xEnd));
+      }
+   }
+
+   public interface FaceSpanShader {
+      void shadeSpan(int triangleIndex, int y, int xStart, int xEnd);
+   }
+
+   /* Pixels exactly on an edge belong to the triangle only if it is a top or a left edge.
+    * For clockwise (on screen) triangles, a top edge is horizontal and runs left to right,
+    * and a left edge runs upward. Other edges are pulled in by one unit so E == 0 is outside.
+    */
+   private static long bias(int xa, int ya, int xb, int yb) {
+      boolean topLeft = ((ya == yb) && (xb > xa)) || (yb < ya);
+      return topLeft ? 0 : 1;
+   }
+
+   private static long ceilDiv(long num, long den) {
+      return -Math.floorDiv(-num, den);
+   }
+}
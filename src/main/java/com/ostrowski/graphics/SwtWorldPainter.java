@@ -0,0 +1,137 @@
+package com.ostrowski.graphics;
+
+import java.util.List;
+
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.graphics.Region;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Paints a World3D onto an SWT GC, and shapes a window to its outline.
+ * <p>
+ * This is the only part of the graphics package that needs SWT, so a world can be stepped and rendered into a
+ * FrameBuffer (such as for snapshots and animations) on a machine without SWT. The shadows are drawn straight onto
+ * the GC, and the models are rendered into a frame buffer that is copied onto the GC in a single drawImage call.
+ */
+public class SwtWorldPainter
+{
+   private final        World3D     world;
+   private final        FrameBuffer frameBuffer          = new FrameBuffer();
+   private              ImageData   imageData            = null;
+   /* The colors the GC draws with outlive any one frame, so steady state frames don't create any native colors. */
+   private final        ColorCache  colorCache           = new ColorCache(COLOR_CACHE_CAPACITY);
+   private static final int         COLOR_CACHE_CAPACITY = 64;
+
+   public SwtWorldPainter(World3D world) {
+      this.world = world;
+   }
+
+   public void paintControl(Display display, GC gc) {
+      if ((display == null) || display.isDisposed() || (gc == null) || gc.isDisposed()) {
+         return;
+      }
+      // The shadows and the models must come from the same frame, so the world can't move in between
+      synchronized (world) {
+         Rectangle clip = gc.getClipping();
+         paintShadows(gc);
+         boolean rendered = world.renderModels(frameBuffer, clip.x + clip.width, clip.y + clip.height);
+         blit(display, gc, rendered);
+      }
+   }
+
+   private void paintShadows(GC gc) {
+      // The shadows are a single convex polygon per model, so the GC draws them directly.
+      // They are drawn first, because they should always be farthest away:
+      List<int[]> shadows = world.getShadowPolygons();
+      if (shadows.isEmpty()) {
+         return;
+      }
+      Color shadowColor = colorCache.get(gc.getDevice(), 0, 0);
+      gc.setForeground(shadowColor);
+      gc.setBackground(shadowColor);
+      for (int[] shadow : shadows) {
+         gc.fillPolygon(shadow);
+      }
+   }
+
+   /*
+    * Copies the frame buffer onto the GC in a single drawImage call, scaled up to the screen if it was rendered smaller.
+    * Pixels that no face was drawn on are transparent, so the shadows show through.
+    */
+   private void blit(Display display, GC gc, boolean rendered) {
+      int width = frameBuffer.getWidth();
+      int height = frameBuffer.getHeight();
+      if ((width == 0) || (height == 0)) {
+         return;
+      }
+      if ((imageData == null) || (imageData.width != width) || (imageData.height != height)) {
+         imageData = new ImageData(width, height, 32, new PaletteData(0xFF0000, 0x00FF00, 0x0000FF));
+         imageData.transparentPixel = FrameBuffer.TRANSPARENT_RGB;
+         rendered = true;
+      }
+      if (rendered) {
+         int[] pixels = frameBuffer.getPixels();
+         for (int y = 0; y < height; y++) {
+            imageData.setPixels(0, y, width, pixels, y * width);
+         }
+      }
+      float renderScale = world.getRenderScale();
+      Image image = new Image(display, imageData);
+      try {
+         if (renderScale == 1f) {
+            gc.drawImage(image, 0, 0);
+         }
+         else {
+            gc.drawImage(image, 0, 0, width, height,
+                         0, 0, Math.round(width / renderScale), Math.round(height / renderScale));
+         }
+      }
+      finally {
+         image.dispose();
+      }
+   }
+
+   /**
+    * Returns the region of the screen covered by the models and their shadows.
+    * Each model adds just two convex polygons: its silhouette and its shadow.
+    */
+   public Region getOutline() {
+      return toRegion(world.getOutline());
+   }
+
+   /**
+    * Returns the outline (see getOutline()), but only if some point of it has moved by more than a pixel since
+    * the last outline returned by this method. Otherwise, returns null, and the previous outline can be kept.
+    */
+   public Region getOutlineIfChanged() {
+      List<int[]> polygons = world.getOutlineIfChanged();
+      return (polygons == null) ? null : toRegion(polygons);
+   }
+
+   private static Region toRegion(List<int[]> polygons) {
+      Region region = new Region();
+      for (int[] polygon : polygons) {
+         region.add(polygon);
+      }
+      return region;
+   }
+
+   /**
+    * The cache of the colors used to paint with, whose hit, miss and eviction counts show how well it is working.
+    */
+   public ColorCache getColorCache() {
+      return colorCache;
+   }
+
+   /**
+    * Releases the native resources held by this painter, which must be called once it is done painting.
+    */
+   public void dispose() {
+      colorCache.dispose();
+   }
+}
@@ -0,0 +1,107 @@
+package com.ostrowski.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Divides the screen into square tiles, and keeps a list of the items (faces) that may cover pixels in each tile.
+ * <p>
+ * Each item is added to every tile that its screen bounding box overlaps, and the items of a tile are kept in
+ * the order they were added, so a tile can be drawn on its own in the same order as the whole screen would be.
+ * The lists are reused from frame to frame, and only grow.
+ */
+class TileBins
+{
+   static final int TILE_SIZE = 64;
+
+   private int     width      = 0;
+   private int     height     = 0;
+   private int     tilesWide  = 0;
+   private int     tilesHigh  = 0;
+   private int[][] items      = new int[0][];
+   private int[]   itemCounts = new int[0];
+
+   /**
+    * Empties every tile, and lays the tiles out over a screen of the given size.
+    */
+   void reset(int width, int height) {
+      this.width = width;
+      this.height = height;
+      tilesWide = (width + TILE_SIZE - 1) / TILE_SIZE;
+      tilesHigh = (height + TILE_SIZE - 1) / TILE_SIZE;
+      int tileCount = tilesWide * tilesHigh;
+      if (items.length < tileCount) {
+         items = Arrays.copyOf(items, tileCount);
+         itemCounts = new int[tileCount];
+         for (int tile = 0; tile < tileCount; tile++) {
+            if (items[tile] == null) {
+               items[tile] = new int[16];
+            }
+         }
+      }
+      Arrays.fill(itemCounts, 0);
+   }
+
+   /**
+    * Adds the item to every tile touched by the bounding box of the given (x,y) points.
+    *
+    * @return the number of pixels in the item's bounding box (after clipping to the screen)
+    */
+   int add(int item, int[] points) {
+      int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+      int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+      for (int p = 0; p < points.length; p += 2) {
+         minX = Math.min(minX, points[p]);
+         maxX = Math.max(maxX, points[p]);
+         minY = Math.min(minY, points[p + 1]);
+         maxY = Math.max(maxY, points[p + 1]);
+      }
+      minX = Math.max(minX, 0);
+      minY = Math.max(minY, 0);
+      maxX = Math.min(maxX, width - 1);
+      maxY = Math.min(maxY, height - 1);
+      if ((minX > maxX) || (minY > maxY)) {
+         return 0;
+      }
+      for (int tileY = minY / TILE_SIZE; tileY <= (maxY / TILE_SIZE); tileY++) {
+         for (int tileX = minX / TILE_SIZE; tileX <= (maxX / TILE_SIZE); tileX++) {
+            int tile = (tileY * tilesWide) + tileX;
+            if (itemCounts[tile] == items[tile].length) {
+               items[tile] = Arrays.copyOf(items[tile], items[tile].length * 2);
+            }
+            items[tile][itemCounts[tile]++] = item;
+         }
+      }
+      return ((maxX - minX) + 1) * ((maxY - minY) + 1);
+   }
+
+   int getTileCount() {
+      return tilesWide * tilesHigh;
+   }
+
+   int getItemCount(int tile) {
+      return itemCounts[tile];
+   }
+
+   /** The items of the tile, in the order they were added. Only the first getItemCount(tile) entries are valid. */
+   int[] getItems(int tile) {
+      return items[tile];
+   }
+
+   int getMinX(int tile) {
+      return (tile % tilesWide) * TILE_SIZE;
+   }
+
+   int getMinY(int tile) {
+      return (tile / tilesWide) * TILE_SIZE;
+   }
+
+   /** One past the last column of the tile */
+   int getMaxX(int tile) {
+      return Math.min(getMinX(tile) + TILE_SIZE, width);
+   }
+
+   /** One past the last row of the tile */
+   int getMaxY(int tile) {
+      return Math.min(getMinY(tile) + TILE_SIZE, height);
+   }
+}
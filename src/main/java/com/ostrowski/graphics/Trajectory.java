@@ -0,0 +1,108 @@
+package com.ostrowski.graphics;
+
+import java.nio.ByteBuffer;
+
+import com.ostrowski.graphics.model.Quaternion;
+
+/**
+ * A recorded roll: the pose of a model (its location and orientation) every STEPS_PER_POSE fixed steps,
+ * from the throw until it came to rest, which a Model can replay instead of running its physics.
+ * <p>
+ * The poses are read straight out of a buffer (typically a memory mapped file), so they take no heap, and
+ * reading one allocates nothing. Each pose is POSE_BYTES long: the location as 3 shorts, in 1/LOCATION_UNITS
+ * of a pixel, and the orientation as a unit quaternion, in 4 shorts of 1/QUATERNION_UNITS each. The steps
+ * between two poses are interpolated.
+ */
+public class Trajectory
+{
+   public static final int   STEPS_PER_POSE   = 4;
+   public static final int   POSE_BYTES       = 7 * 2;
+   /* 1/8 of a pixel, which covers locations out to +/-4096 pixels */
+   public static final float LOCATION_UNITS   = 8;
+   public static final float QUATERNION_UNITS = Short.MAX_VALUE;
+
+   private final ByteBuffer buffer;
+   private final int        offset;
+   private final int        poseCount;
+   private final int        result;
+
+   /**
+    * @param offset    where the first pose starts in the buffer
+    * @param poseCount the number of poses, at least 1
+    * @param result    the result the roll came to rest showing
+    */
+   public Trajectory(ByteBuffer buffer, int offset, int poseCount, int result) {
+      this.buffer = buffer;
+      this.offset = offset;
+      this.poseCount = poseCount;
+      this.result = result;
+   }
+
+   public int getPoseCount() {
+      return poseCount;
+   }
+
+   public int getResult() {
+      return result;
+   }
+
+   /** @return the number of fixed steps the roll takes to replay, after its first pose */
+   public int getStepCount() {
+      return (poseCount - 1) * STEPS_PER_POSE;
+   }
+
+   /**
+    * Moves the frame to where the model was the given number of fixed steps after the throw.
+    * Only the location and orientation are set.
+    */
+   public void getPose(int step, MutableFrame dest) {
+      step = Math.max(0, Math.min(step, getStepCount()));
+      int pose = step / STEPS_PER_POSE;
+      float fraction = (float) (step % STEPS_PER_POSE) / STEPS_PER_POSE;
+      int from = offset + (pose * POSE_BYTES);
+      int to = (fraction == 0) ? from : (from + POSE_BYTES);
+
+      dest.location.set(lerp(from, to, 0, fraction) / LOCATION_UNITS,
+                        lerp(from, to, 1, fraction) / LOCATION_UNITS,
+                        lerp(from, to, 2, fraction) / LOCATION_UNITS);
+      // Neighboring poses are always within a few degrees, so a straight line between them, scaled back
+      // to unit length, is as good as turning at a constant rate.
+      float sign = (dot(from, to) < 0) ? -1 : 1;
+      float w = (buffer.getShort(from + 6)  * (1 - fraction)) + (buffer.getShort(to + 6)  * fraction * sign);
+      float x = (buffer.getShort(from + 8)  * (1 - fraction)) + (buffer.getShort(to + 8)  * fraction * sign);
+      float y = (buffer.getShort(from + 10) * (1 - fraction)) + (buffer.getShort(to + 10) * fraction * sign);
+      float z = (buffer.getShort(from + 12) * (1 - fraction)) + (buffer.getShort(to + 12) * fraction * sign);
+      float length = (float) Math.sqrt((w * w) + (x * x) + (y * y) + (z * z));
+      dest.setOrientation(w / length, x / length, y / length, z / length);
+   }
+
+   private float lerp(int from, int to, int component, float fraction) {
+      return (buffer.getShort(from + (component * 2)) * (1 - fraction)) + (buffer.getShort(to + (component * 2)) * fraction);
+   }
+
+   private float dot(int from, int to) {
+      float dot = 0;
+      for (int i = 6; i < POSE_BYTES; i += 2) {
+         dot += buffer.getShort(from + i) * (float) buffer.getShort(to + i);
+      }
+      return dot;
+   }
+
+   /**
+    * Writes the pose of the frame (its location and orientation) into the buffer at its current position.
+    */
+   public static void putPose(ByteBuffer out, Frame frame) {
+      out.putShort(quantize(frame.location.getX() * LOCATION_UNITS));
+      out.putShort(quantize(frame.location.getY() * LOCATION_UNITS));
+      out.putShort(quantize(frame.location.getZ() * LOCATION_UNITS));
+      Quaternion orientation = frame.orientation;
+      out.putShort(quantize(orientation.getW() * QUATERNION_UNITS));
+      out.putShort(quantize(orientation.getX() * QUATERNION_UNITS));
+      out.putShort(quantize(orientation.getY() * QUATERNION_UNITS));
+      out.putShort(quantize(orientation.getZ() * QUATERNION_UNITS));
+   }
+
+   private static short quantize(float value) {
+      return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+   }
+}
@@ -0,0 +1,120 @@
+package com.ostrowski.graphics;
+
+import com.ostrowski.graphics.model.Tuple2;
+
+/**
+ * The screen-space to texture-space mapping of a single triangle, computed once per triangle.
+ * <p>
+ * Each attribute (q, u*q and v*q, where q is the inverse depth of the vertex) is a plane
+ * over the screen, a(x,y) = a0 + dadx*(x-x0) + dady*(y-y0), so stepping one pixel to the right
+ * is just one add per attribute. Recovering (u, v) costs one reciprocal of q per pixel, which
+ * is what makes the mapping perspective correct. When perspective correction is off, q is 1
+ * at every vertex and the mapping becomes affine.
+ * <p>
+ * The inverse depth itself is always kept as its own plane (z), since it is linear in screen
+ * space, which makes it exactly what a depth buffer needs to compare. Larger values are closer.
+ * <p>
+ * Instances are mutable so a renderer can keep one per triangle slot and reuse it every frame.
+ */
+public class TriangleGradients
+{
+   float x0, y0;
+   float z0,  dzdx,  dzdy;
+   float q0,  dqdx,  dqdy;
+   float uq0, duqdx, duqdy;
+   float vq0, dvqdx, dvqdy;
+
+   /**
+    * Sets up the gradients for a triangle.
+    *
+    * @param x0 screen position of the first vertex (the others follow)
+    * @param z0 the inverse depth of the first vertex
+    * @param t0 the texture coordinate of the first vertex
+    * @param perspectiveCorrect false to map the texture linearly in screen space
+    * @return false if the triangle is degenerate (has no area on screen)
+    */
+   public boolean setup(float x0, float y0, float z0, Tuple2 t0,
+                        float x1, float y1, float z1, Tuple2 t1,
+                        float x2, float y2, float z2, Tuple2 t2,
+                        boolean perspectiveCorrect) {
+      float dx1 = x1 - x0, dy1 = y1 - y0;
+      float dx2 = x2 - x0, dy2 = y2 - y0;
+      float det = (dx1 * dy2) - (dx2 * dy1);
+      if (det == 0) {
+         return false;
+      }
+      float invDet = 1f / det;
+      this.x0 = x0;
+      this.y0 = y0;
+
+      // The texture map's v axis is flipped by the obj loader, so add 1 to bring it back into [0, 1)
+      float u0 = t0.getX(), v0 = 1 + t0.getY();
+      float u1 = t1.getX(), v1 = 1 + t1.getY();
+      float u2 = t2.getX(), v2 = 1 + t2.getY();
+
+      this.z0 = z0;
+      float dz1 = z1 - z0, dz2 = z2 - z0;
+      dzdx = ((dz1 * dy2) - (dz2 * dy1)) * invDet;
+      dzdy = ((dz2 * dx1) - (dz1 * dx2)) * invDet;
+
+      float q0 = perspectiveCorrect ? z0 : 1;
+      float q1 = perspectiveCorrect ? z1 : 1;
+      float q2 = perspectiveCorrect ? z2 : 1;
+      this.q0 = q0;
+      float dq1 = q1 - q0, dq2 = q2 - q0;
+      dqdx = ((dq1 * dy2) - (dq2 * dy1)) * invDet;
+      dqdy = ((dq2 * dx1) - (dq1 * dx2)) * invDet;
+
+      uq0 = u0 * q0;
+      float duq1 = (u1 * q1) - uq0, duq2 = (u2 * q2) - uq0;
+      duqdx = ((duq1 * dy2) - (duq2 * dy1)) * invDet;
+      duqdy = ((duq2 * dx1) - (duq1 * dx2)) * invDet;
+
+      vq0 = v0 * q0;
+      float dvq1 = (v1 * q1) - vq0, dvq2 = (v2 * q2) - vq0;
+      dvqdx = ((dvq1 * dy2) - (dvq2 * dy1)) * invDet;
+      dvqdy = ((dvq2 * dx1) - (dvq1 * dx2)) * invDet;
+      return true;
+   }
+
+   /** @return the inverse depth at the given screen point. Larger values are closer to the camera. */
+   public float getDepth(float x, float y) {
+      return z0 + (dzdx * (x - x0)) + (dzdy * (y - y0));
+   }
+
+   public float getQ(float x, float y) {
+      return q0 + (dqdx * (x - x0)) + (dqdy * (y - y0));
+   }
+
+   public float getUQ(float x, float y) {
+      return uq0 + (duqdx * (x - x0)) + (duqdy * (y - y0));
+   }
+
+   public float getVQ(float x, float y) {
+      return vq0 + (dvqdx * (x - x0)) + (dvqdy * (y - y0));
+   }
+
+   /** @return the texture u coordinate at the given screen point */
+   public float getU(float x, float y) {
+      return getUQ(x, y) / getQ(x, y);
+   }
+
+   /** @return the texture v coordinate at the given screen point */
+   public float getV(float x, float y) {
+      return getVQ(x, y) / getQ(x, y);
+   }
+
+   /**
+    * @return the rate of change of u when stepping one pixel in x, given the current u and q at that pixel.
+    */
+   public float getDuDx(float u, float q) {
+      return (duqdx - (u * dqdx)) / q;
+   }
+
+   /**
+    * @return the rate of change of v when stepping one pixel in y, given the current v and q at that pixel.
+    */
+   public float getDvDy(float v, float q) {
+      return (dvqdy - (v * dqdy)) / q;
+   }
+}
@@ -0,0 +1,73 @@
+package com.ostrowski.graphics;
+
+import com.ostrowski.graphics.model.Matrix3x3;
+import com.ostrowski.graphics.model.Tuple3;
+
+/**
+ * Transforms whole meshes at once, with the coordinates kept in a structure of arrays: one float[] each for x, y and z.
+ * <p>
+ * Positioning a vertex through Tuple3.applyTransformation() and add() costs two allocations and a chain of
+ * method calls. These kernels run a single loop of multiply-adds over primitive arrays instead, with the
+ * transform held in locals, which allocates nothing and is simple enough for the JIT to unroll and vectorize.
+ * <p>
+ * A transform is a 3x4 row-major affine matrix in a float[12]: a 3x3 linear part, with the translation as the fourth column.
+ */
+public final class VertexKernel
+{
+   public static final int AFFINE_SIZE = 12;
+
+   private VertexKernel() {
+   }
+
+   /**
+    * Fills dest with the affine transform that applies the linear transform, and then adds the translation.
+    * A null translation means no translation.
+    */
+   public static float[] setAffine(float[] dest, Matrix3x3 linear, Tuple3 translation) {
+      for (int row = 0; row < 3; row++) {
+         dest[(row * 4)]     = linear.get(row, 0);
+         dest[(row * 4) + 1] = linear.get(row, 1);
+         dest[(row * 4) + 2] = linear.get(row, 2);
+      }
+      dest[3]  = (translation == null) ? 0 : translation.getX();
+      dest[7]  = (translation == null) ? 0 : translation.getY();
+      dest[11] = (translation == null) ? 0 : translation.getZ();
+      return dest;
+   }
+
+   /**
+    * Transforms count points by the affine transform m, from the in arrays into the out arrays.
+    * The out arrays may be the same as the in arrays.
+    */
+   public static void transformPoints(float[] m,
+                                      float[] inX, float[] inY, float[] inZ,
+                                      float[] outX, float[] outY, float[] outZ, int count) {
+      float m0 = m[0], m1 = m[1], m2  = m[2],  m3  = m[3];
+      float m4 = m[4], m5 = m[5], m6  = m[6],  m7  = m[7];
+      float m8 = m[8], m9 = m[9], m10 = m[10], m11 = m[11];
+      for (int i = 0; i < count; i++) {
+         float x = inX[i], y = inY[i], z = inZ[i];
+         outX[i] = (m0 * x) + (m1 * y) + (m2  * z) + m3;
+         outY[i] = (m4 * x) + (m5 * y) + (m6  * z) + m7;
+         outZ[i] = (m8 * x) + (m9 * y) + (m10 * z) + m11;
+      }
+   }
+
+   /**
+    * Transforms count directions (such as normals) by the linear part of m, ignoring its translation.
+    * The out arrays may be the same as the in arrays.
+    */
+   public static void transformDirections(float[] m,
+                                          float[] inX, float[] inY, float[] inZ,
+                                          float[] outX, float[] outY, float[] outZ, int count) {
+      float m0 = m[0], m1 = m[1], m2  = m[2];
+      float m4 = m[4], m5 = m[5], m6  = m[6];
+      float m8 = m[8], m9 = m[9], m10 = m[10];
+      for (int i = 0; i < count; i++) {
+         float x = inX[i], y = inY[i], z = inZ[i];
+         outX[i] = (m0 * x) + (m1 * y) + (m2  * z);
+         outY[i] = (m4 * x) + (m5 * y) + (m6  * z);
+         outZ[i] = (m8 * x) + (m9 * y) + (m10 * z);
+      }
+   }
+}
@@ -1,28 +1,25 @@
 package com.ostrowski.graphics;
 
-import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.graphics.GC;
-import org.eclipse.swt.graphics.Rectangle;
-import org.eclipse.swt.graphics.Region;
-import org.eclipse.swt.widgets.Display;
-
-import com.ostrowski.dieroller.TextureMapper;
-import com.ostrowski.graphics.model.ColoredFace;
 import com.ostrowski.graphics.model.Face;
 import com.ostrowski.graphics.model.Matrix3x3;
-import com.ostrowski.graphics.model.Tuple2;
+import com.ostrowski.graphics.model.Quaternion;
+import com.ostrowski.graphics.model.Texture;
 import com.ostrowski.graphics.model.Tuple3;
 
 public class World3D
 {
    private final        List<Model>   data                          = new ArrayList<>();
+   /* Bounces apart the models that run into each other, after every fixed step */
+   private final        Collider      collider                      = new Collider();
+   /* The most models side by side that a new model is moved along, to find it a start clear of the others */
+   private static final int           MAX_START_SLOTS               = 64;
    private final        Tuple3        acceleration                  = new Tuple3(0, 0, -1500);   // per seconds^2
    static final         Tuple3        cameraPosition                = new Tuple3(0, 900, 900);   // the position of the camera
    final                Matrix3x3     viewTransform                 = Matrix3x3./*IdentityMatrix();*/getRotationalTransformation(35, 0, 0); // in degrees
@@ -31,29 +28,262 @@ public class World3D
    private final        Tuple3        lightSource                   = new Tuple3(0, 1, 1).unitVector();
    private final        Tuple3        lightPerZ                     = lightSource.divide(lightSource.getZ());
    private final        int           floorZValue                   = -100;
+   /* Maps a world point along the light onto the floor, and then into view space, as a 3x4 row-major matrix */
+   private final        float[]       shadowTransform               = getShadowTransform();
    private              Long          timeOfLastUpdate              = null;
-   private final static float         DARKEST_COLOR                 = 0.3f;
-   private final static float         LIGHTEST_COLOR                = 1.0f;
-   private final        BufferedImage texture;
+   /* The physics always advances in steps of this much simulated time, however often frames are drawn */
+   public static final  float         FIXED_TIME_STEP_IN_SECONDS    = 1 / 240f;
+   /* The most fixed steps that one call to step() takes */
+   public static final  int           MAX_STEPS_PER_UPDATE          = 16;
+   /* Times this close to a whole step are treated as one, so rounding doesn't change how many steps are taken */
+   private static final double        STEP_TOLERANCE_IN_SECONDS     = 1e-7;
+   /* Simulated time that has been handed to step(), but not yet made up a whole step */
+   private              double        unsimulatedSeconds            = 0;
+   /* The range of brightness that faces are shaded with, from facing away from the light to facing it */
+   public  final static float         DARKEST_COLOR                 = 0.3f;
+   public  final static float         LIGHTEST_COLOR                = 1.0f;
+   private final        Texture       texture;
+   private final        int           textureWidth;
+   private final        int           textureHeight;
    private              boolean       waitingTillGetOutlineIsCalled = false;
-   final                List<Face>    shadows                       = new ArrayList<>();
-   final                Tuple2        shadowTextureVertex           = new Tuple2(0, 0);
-   final                Tuple3        shadowNormal                  = new Tuple3(0, 0, 1);
+   private              boolean       perspectiveCorrectTextures    = true;
+   private              boolean       useDepthBuffer                = true;
+   private              boolean       parallelRendering             = true;
+   /* The pool that the tiles of a parallel frame are shaded on */
+   private              ForkJoinPool  renderPool                    = ForkJoinPool.commonPool();
+   private              int           parallelPixelThreshold        = DEFAULT_PARALLEL_PIXEL_THRESHOLD;
+   /* Below this many pixels of face bounding boxes, the cost of forking tasks outweighs the gain */
+   public static final  int           DEFAULT_PARALLEL_PIXEL_THRESHOLD = 128 * 128;
+   private static final int           TILES_PER_TASK                = 4;
+   private              float         lodPixelThreshold             = DEFAULT_LOD_PIXEL_THRESHOLD;
+   private              float         lodTexelsPerPixel             = DEFAULT_LOD_TEXELS_PER_PIXEL;
+   /* Faces that cover fewer pixels than this are filled with their average color, instead of being textured */
+   public static final  float         DEFAULT_LOD_PIXEL_THRESHOLD   = 24;
+   /* Faces whose pixels each average more texels than this (16x16) are also filled with their average color */
+   public static final  float         DEFAULT_LOD_TEXELS_PER_PIXEL  = 256;
+   /* The size of the frame buffer that faces are rasterized into, relative to the screen. Below 1, it is scaled up to fit. */
+   private              float         renderScale                   = 1f;
+   private              Texture.Filtering textureFiltering          = Texture.Filtering.TRILINEAR;
+   private              boolean       shadowsEnabled                = true;
+   /* The number of faces drawn in the last frame, and how many of them were filled with their average color */
+   private              int           lastFrameFaceCount            = 0;
+   private              int           lastFrameLodFaceCount         = 0;
+   private final        List<ProjectedModel> projections            = new ArrayList<>();
+   private              boolean       projectionIsCurrent           = false;
+   /* true once every model has come to rest, so nothing will change until a new model is added */
+   private              boolean       settled                       = false;
+   /* true while the frame buffer last passed to renderModels() holds the current frame */
+   private              boolean       frameIsCurrent                = false;
+   private              FrameBuffer   lastModelTarget               = null;
+   private              boolean       wakeRequested                 = false;
+   /* The points of the last outline returned by getOutlineIfChanged() */
+   private              int[]         publishedOutline              = null;
    long totalTime = 0;
    long drawCount = 0;
    public static final Tuple3 UP_VECTOR = new Tuple3(0, 0, 1);
 
-   public void add(Model data) {
+   public synchronized void add(Model data) {
+      makeRoomFor(data);
       this.data.add(data);
+      ProjectedModel projection = new ProjectedModel(data);
+      projection.measureTexture(texture);
+      this.projections.add(projection);
+      projectionIsCurrent = false;
+      frameIsCurrent = false;
+      settled = false;
+      // wake up the animation thread, if it is waiting for something to move
+      notifyAll();
+   }
+
+   /*
+    * Every model is thrown from the same place, so a model that would start out inside of one already in the world
+    * is moved sideways (alternately right and left, farther each time) until it starts out clear of all of them.
+    * A model replaying a recorded roll has to stay on its recorded path, so it is left where it is.
+    */
+   private void makeRoomFor(Model model) {
+      model.thrown = false;
+      if (model.isReplaying()) {
+         return;
+      }
+      Tuple3 start = model.getFrame().location;
+      float spacing = 2 * model.boundingRadius;
+      for (int slot = 0; slot < MAX_START_SLOTS; slot++) {
+         float offsetX = ((slot + 1) / 2) * spacing * (((slot % 2) == 0) ? -1 : 1);
+         if (isClear(model, start.getX() + offsetX, start.getY(), start.getZ())) {
+            if (offsetX != 0) {
+               model.setFrame(model.getFrame().addLocation(new Tuple3(offsetX, 0, 0)));
+            }
+            return;
+         }
+      }
+   }
+
+   private boolean isClear(Model model, float x, float y, float z) {
+      for (Model other : data) {
+         if (other == model) {
+            continue;
+         }
+         Tuple3 location = other.getFrame().location;
+         float dx = location.getX() - x;
+         float dy = location.getY() - y;
+         float dz = location.getZ() - z;
+         float reach = model.boundingRadius + other.boundingRadius;
+         if (((dx * dx) + (dy * dy) + (dz * dz)) < (reach * reach)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Starts the model (which is in the world, or about to be added to it) replaying the recorded roll, turned by the
+    * relabeling (see Model.replay()). Two replaying models would pass right through each other, so the roll is moved
+    * sideways (as in makeRoomFor()) until its whole path keeps clear of every other model replaying one.
+    *
+    * @return false if there is no such path, in which case the model is left as it was, to roll with its physics
+    */
+   public synchronized boolean replay(Model model, Trajectory trajectory, Quaternion relabeling) {
+      float spacing = 2 * model.boundingRadius;
+      for (int slot = 0; slot < MAX_START_SLOTS; slot++) {
+         float offsetX = ((slot + 1) / 2) * spacing * (((slot % 2) == 0) ? -1 : 1);
+         if (isClearToReplay(model, trajectory, offsetX)) {
+            model.replay(trajectory, relabeling, offsetX);
+            projectionIsCurrent = false;
+            frameIsCurrent = false;
+            settled = false;
+            // wake up the animation thread, if it is waiting for something to move
+            notifyAll();
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private boolean isClearToReplay(Model model, Trajectory trajectory, float offsetX) {
+      for (Model other : data) {
+         if ((other != model) && other.isReplaying() && model.wouldRunInto(trajectory, offsetX, other)) {
+            return false;
+         }
+      }
+      return true;
    }
-   public World3D(BufferedImage texture) {
+
+   public World3D(Texture texture) {
       this.texture = texture;
+      this.textureWidth = texture.getWidth();
+      this.textureHeight = texture.getHeight();
+   }
+
+   /* When false, textures are mapped linearly in screen space, which is slightly cheaper but
+    * makes textures swim on faces that are steeply angled to the camera.
+    */
+   public synchronized void setPerspectiveCorrectTextures(boolean perspectiveCorrectTextures) {
+      this.perspectiveCorrectTextures = perspectiveCorrectTextures;
+      frameIsCurrent = false;
+   }
+
+   /* When true (the default), hidden surfaces are removed per pixel with a depth buffer, which is correct even
+    * for faces of different dice that intersect. When false, faces are sorted and drawn back to front instead.
+    */
+   public synchronized void setUseDepthBuffer(boolean useDepthBuffer) {
+      this.useDepthBuffer = useDepthBuffer;
+      frameIsCurrent = false;
+   }
+
+   /* When true (the default), frames that cover enough pixels are split into tiles that are shaded in parallel
+    * on the render pool. The resulting frame is identical either way.
+    */
+   public synchronized void setParallelRendering(boolean parallelRendering) {
+      this.parallelRendering = parallelRendering;
+   }
+
+   /* The pool that parallel frames are shaded on, which is the common ForkJoin pool unless another is given.
+    * A pool with a parallelism of 1 renders every frame on the calling thread instead.
+    */
+   public synchronized void setRenderPool(ForkJoinPool renderPool) {
+      this.renderPool = renderPool;
+   }
+
+   /* The number of pixels the faces' bounding boxes must add up to before a frame is rendered in parallel. */
+   public synchronized void setParallelPixelThreshold(int parallelPixelThreshold) {
+      this.parallelPixelThreshold = parallelPixelThreshold;
+   }
+
+   /**
+    * Sets the level of detail thresholds: faces that cover fewer than lodPixelThreshold pixels on the screen, or
+    * whose pixels each cover more than lodTexelsPerPixel texels, are filled with the average color of their
+    * texture, instead of texturing every pixel. A pixel threshold of 0 and an infinite texel density turn this off.
+    */
+   public synchronized void setLevelOfDetail(float lodPixelThreshold, float lodTexelsPerPixel) {
+      if ((lodPixelThreshold != this.lodPixelThreshold) || (lodTexelsPerPixel != this.lodTexelsPerPixel)) {
+         this.lodPixelThreshold = lodPixelThreshold;
+         this.lodTexelsPerPixel = lodTexelsPerPixel;
+         frameIsCurrent = false;
+      }
+   }
+
+   public synchronized float getLodPixelThreshold() {
+      return lodPixelThreshold;
+   }
+
+   public synchronized float getLodTexelsPerPixel() {
+      return lodTexelsPerPixel;
+   }
+
+   /**
+    * @return the fraction of the faces drawn in the last frame that were filled with their average color.
+    */
+   public synchronized float getLodFaceFraction() {
+      return (lastFrameFaceCount == 0) ? 0 : ((float) lastFrameLodFaceCount / lastFrameFaceCount);
+   }
+
+   /**
+    * Sets the resolution the faces are rasterized at, relative to the screen, from (0,1]. Frames rendered at less
+    * than 1 cost about the square of the scale as much to shade, and are scaled up to the screen when they are drawn.
+    */
+   public synchronized void setRenderScale(float renderScale) {
+      renderScale = Math.max(0.1f, Math.min(1f, renderScale));
+      if (renderScale != this.renderScale) {
+         this.renderScale = renderScale;
+         projectionIsCurrent = false;
+         frameIsCurrent = false;
+      }
+   }
+
+   public synchronized float getRenderScale() {
+      return renderScale;
+   }
+
+   public synchronized void setTextureFiltering(Texture.Filtering textureFiltering) {
+      if (textureFiltering != this.textureFiltering) {
+         this.textureFiltering = textureFiltering;
+         frameIsCurrent = false;
+      }
+   }
+
+   public synchronized Texture.Filtering getTextureFiltering() {
+      return textureFiltering;
+   }
+
+   /* When false, no shadows are drawn, and the outline only covers the models themselves. */
+   public synchronized void setShadowsEnabled(boolean shadowsEnabled) {
+      this.shadowsEnabled = shadowsEnabled;
+   }
+
+   public synchronized boolean isShadowsEnabled() {
+      return shadowsEnabled;
    }
 
    public synchronized void update() {
       if (waitingTillGetOutlineIsCalled) {
          return;
       }
+      if (settled) {
+         // Nothing is moving, so there is nothing to update, and the cached frame is still good.
+         // Restart the clock, so the time spent at rest isn't applied to the next model that is added.
+         timeOfLastUpdate = null;
+         return;
+      }
 
 //      if (_rollState == RollState.LEVELING) {
 //         Tuple3 targetsCurrentOrientation = targetOrientation.applyTransformation(_orientationTransform);
@@ -62,12 +292,12 @@ public class World3D
 //         rotationalAxis = rotationalAxis.multiply(targetsCurrentOrientation.dotProduct(upVector) * 5);
 //      }
 
-      long now = System.currentTimeMillis();
+      long now = System.nanoTime();
       if (timeOfLastUpdate == null) {
          timeOfLastUpdate = now;
          return;
       }
-      float elapsedTimeInSeconds = (now - timeOfLastUpdate) / 1000f;
+      float elapsedTimeInSeconds = (now - timeOfLastUpdate) / 1_000_000_000f;
       timeOfLastUpdate = now;
 
       boolean debugging = false;
@@ -75,16 +305,59 @@ public class World3D
          elapsedTimeInSeconds /= 10f;
       }
 
-      for (Model model : data) {
-         model.update(elapsedTimeInSeconds, acceleration, floorZValue);
-      }
+      step(elapsedTimeInSeconds);
 
-      // Now that the location is finalized, figure out the shadows.
-      computeShadows();
+      // Now that the location is finalized, project every vertex once, and figure out the shadows.
+      project();
 
       waitingTillGetOutlineIsCalled = true;
    }
 
+   /**
+    * Advances the world by the given amount of simulated time, regardless of the wall clock.
+    * <p>
+    * The models are always moved in fixed steps of FIXED_TIME_STEP_IN_SECONDS, so the same throw always rolls
+    * the same way, no matter how the time is handed in. Time that doesn't make up a whole step is carried over
+    * to the next call, and the models are drawn that fraction of the way into their next step. No call takes
+    * more than MAX_STEPS_PER_UPDATE steps: a longer pause (such as a garbage collection, or a slow paint) is
+    * dropped, which slows the roll down for a moment, rather than making the next frame late too.
+    * <p>
+    * Nothing is projected until something asks to draw the world, so a world can be stepped as fast as
+    * the physics allows, such as to run a roll to rest before rendering it headlessly.
+    */
+   public synchronized void step(float elapsedTimeInSeconds) {
+      // Models thrown again since the last step (such as by Model.reset()) start out from the same place too
+      for (int m = 0; m < data.size(); m++) {
+         if (data.get(m).thrown) {
+            makeRoomFor(data.get(m));
+         }
+      }
+      unsimulatedSeconds += elapsedTimeInSeconds;
+      int steps = 0;
+      while ((unsimulatedSeconds >= (FIXED_TIME_STEP_IN_SECONDS - STEP_TOLERANCE_IN_SECONDS)) &&
+             (steps < MAX_STEPS_PER_UPDATE)) {
+         // (indexed, so stepping doesn't even allocate an iterator)
+         for (int m = 0; m < data.size(); m++) {
+            data.get(m).update(FIXED_TIME_STEP_IN_SECONDS, acceleration, floorZValue);
+         }
+         collider.collide(data, acceleration);
+         unsimulatedSeconds = Math.max(0, unsimulatedSeconds - FIXED_TIME_STEP_IN_SECONDS);
+         steps++;
+      }
+      if (unsimulatedSeconds >= FIXED_TIME_STEP_IN_SECONDS) {
+         unsimulatedSeconds %= FIXED_TIME_STEP_IN_SECONDS;
+      }
+      projectionIsCurrent = false;
+
+      settled = true;
+      for (int m = 0; m < data.size(); m++) {
+         if (data.get(m).isMoving()) {
+            settled = false;
+            break;
+         }
+      }
+   }
+
 
 
 //   private void setOrientationToNormal(Tuple3 orientation) {
@@ -92,31 +365,87 @@ public class World3D
 //   }
 
 
-   public void computeShadows() {
-      shadows.clear();
-      for (Model model : data) {
-         for (Face face : model.getColoredFaces()) {
-            Tuple3 normal = face.getCommonNormal();
-            // See if the light is hitting this face.
-            // If so, the clockwise orientation of the vertices will cast a clockwise shadow
-            if (normal.dotProduct(lightSource) > 0) {
-               List<Tuple3> pointsOnFloor = new ArrayList<>();
-               for (int v = 0; v<face.vertexCount; v++) {
-                  Tuple3 vertex = face.getVertex(v);
-                  float distanceToFloor = floorZValue - vertex.getZ();
-                  Tuple3 pointOnFloor = lightPerZ.multiply(distanceToFloor).add(vertex);
-                  pointsOnFloor.add(pointOnFloor);
-               }
-               Face shadow = new Face(pointsOnFloor.size(), "shadow" + face.getLabel());
-               for (Tuple3 point : pointsOnFloor) {
-                  shadow.addPoint(point, shadowTextureVertex, shadowNormal);
-               }
-               shadows.add(shadow);
-            }
-         }
+   /*
+    * Positions and projects every vertex of every model for this frame, and then computes the shadows from them.
+    * Everything drawn until the models move again reads from these projections.
+    */
+   private void project() {
+      for (ProjectedModel projection : projections) {
+         projection.project(viewTransform, renderScale, getStepFraction());
+      }
+      projectionIsCurrent = true;
+      frameIsCurrent = false;
+      computeShadows();
+   }
+
+   /* How far the world is into its next fixed step, from 0 up to 1 */
+   private float getStepFraction() {
+      return (float) Math.min(1, unsimulatedSeconds / FIXED_TIME_STEP_IN_SECONDS);
+   }
+
+   private void ensureProjected() {
+      if (!projectionIsCurrent) {
+         project();
+      }
+   }
+
+   /**
+    * @return true once every model has come to rest. A settled world draws the same frame until a model is added.
+    */
+   public synchronized boolean isSettled() {
+      return settled;
+   }
+
+   /**
+    * Blocks the calling (animation) thread for as long as the world is settled, so a table of dice that have all
+    * come to rest doesn't use any CPU. Returns as soon as a new model is added, or wake() is called.
+    */
+   public synchronized void awaitMotion() throws InterruptedException {
+      while (settled && !wakeRequested) {
+         wait();
+      }
+      wakeRequested = false;
+   }
+
+   /**
+    * Releases a thread waiting in awaitMotion(), so it can draw one more frame, such as after a resize.
+    * The frame is drawn again from scratch, even if nothing has moved.
+    */
+   public synchronized void wake() {
+      wakeRequested = true;
+      frameIsCurrent = false;
+      notifyAll();
+   }
+
+   public synchronized void computeShadows() {
+      ensureProjected();
+      for (ProjectedModel projection : projections) {
+         projection.projectShadow(shadowTransform);
       }
    }
 
+   /*
+    * A point p moves along the light onto the floor at p + lightPerZ * (floorZValue - p.z), which is a linear
+    * transformation (that flattens z) plus an offset. Multiplying both by the view transform lets the shadow of
+    * a vertex be taken straight from world space to view space with a single matrix.
+    */
+   private float[] getShadowTransform() {
+      Matrix3x3 shadow = new Matrix3x3(new Tuple3(1, 0, -lightPerZ.getX()),
+                                       new Tuple3(0, 1, -lightPerZ.getY()),
+                                       new Tuple3(0, 0, 0));
+      Matrix3x3 viewShadow = viewTransform.multiply(shadow);
+      Tuple3 offset = viewTransform.multiply(new Tuple3(lightPerZ.getX() * floorZValue,
+                                                        lightPerZ.getY() * floorZValue,
+                                                        floorZValue));
+      // read the matrix out, one column at a time
+      Tuple3 column0 = viewShadow.multiply(new Tuple3(1, 0, 0));
+      Tuple3 column1 = viewShadow.multiply(new Tuple3(0, 1, 0));
+      Tuple3 column2 = viewShadow.multiply(new Tuple3(0, 0, 1));
+      return new float[] {column0.getX(), column1.getX(), column2.getX(), offset.getX(),
+                          column0.getY(), column1.getY(), column2.getY(), offset.getY(),
+                          column0.getZ(), column1.getZ(), column2.getZ(), offset.getZ()};
+   }
+
    static Tuple3 adjustForViewAndPerspective(Tuple3 vertex, Matrix3x3 viewTransform) {
       Tuple3 adjusted = viewTransform.multiply(vertex);
       //float cameraDistance = (float) cameraPosition.subtract(vertex).magnitude();
@@ -124,6 +453,16 @@ public class World3D
       float depthScale = FOCAL_LENGTH / cameraDistance;
       return adjusted.scale(depthScale, depthScale, 1.0);
    }
+
+   /* Returns the factor that scales the view-space X and Y of a point with the given view-space Z onto the screen. */
+   static float getDepthScale(float viewZ) {
+      return FOCAL_LENGTH / (CAMERA_DISTANCE - viewZ);
+   }
+
+   /* Returns 1/depth, for a point whose view-space Z (as returned by adjustForViewAndPerspective) is given. */
+   static float getInverseDepth(float viewZ) {
+      return 1f / (CAMERA_DISTANCE - viewZ);
+   }
    public boolean isFacingAway(Face face) {
       Tuple3 vertex0 = adjustForViewAndPerspective(face.getVertex(0), viewTransform);
       Tuple3 vertex1 = adjustForViewAndPerspective(face.getVertex(1), viewTransform);
@@ -134,246 +473,433 @@ public class World3D
       Tuple3 normal = s01.crossProduct(s12).normalize();
       return normal.getZ() < 0;
    }
-   public synchronized Region getOutline() {
-      Region region = new Region();
-      for (Model model : data) {
-         for (Face face : model.getColoredFaces()) {
-            // don't draw faces that face away:
-            if (isFacingAway(face)) {
-               continue;
-            }
-            region.add(getPoints(face));
-         }
-      }
-      for (Face face : shadows) {
-         region.add(getPoints(face));
+   /**
+    * Returns the polygons that cover the part of the screen the models and their shadows are drawn on.
+    * Each model adds just two convex polygons, as {x0, y0, x1, y1, ...}: its silhouette and its shadow.
+    */
+   public synchronized List<int[]> getOutline() {
+      ensureProjected();
+      List<int[]> polygons = new ArrayList<>();
+      for (ProjectedModel projection : projections) {
+         polygons.add(projection.silhouettePolygon);
+         polygons.add(getOutlineShadow(projection));
       }
       waitingTillGetOutlineIsCalled = false;
 
-      return region;
+      return polygons;
    }
 
-
-   private int[] getPoints(Face face) {
-      int offset = 0; //(int) ((_scale * -3)/ 2);
-      int[] arry = new int[face.vertexCount * 2];
-      int i=0;
-      //StringBuilder sb = new StringBuilder();
-      for (int v = 0; v<face.vertexCount; v++) {
-         Tuple3 tuple = adjustForViewAndPerspective(face.getVertex(v), viewTransform);
-         arry[i++] = Math.round(tuple.getX()) - offset;
-         arry[i++] = Math.round(tuple.getY()) - offset;
-//         sb.append("(").append(arry[i-2]).append(", ").append(arry[i-1]).append(") ");
+   /**
+    * Returns the outline (see getOutline()), but only if some point of it has moved by more than a pixel since
+    * the last outline returned by this method. Otherwise, returns null, and the previous outline can be kept.
+    */
+   public synchronized List<int[]> getOutlineIfChanged() {
+      ensureProjected();
+      int length = 0;
+      for (ProjectedModel projection : projections) {
+         length += projection.silhouettePolygon.length + projection.shadowPolygon.length;
+      }
+      boolean changed = (publishedOutline == null) || (publishedOutline.length != length);
+      if (changed) {
+         publishedOutline = new int[length];
+      }
+      int offset = 0;
+      for (ProjectedModel projection : projections) {
+         changed |= hasOutlineMoved(projection.silhouettePolygon, offset);
+         offset += projection.silhouettePolygon.length;
+         changed |= hasOutlineMoved(getOutlineShadow(projection), offset);
+         offset += projection.shadowPolygon.length;
       }
-//      System.out.println(sb.toString());
-      return arry;
+      if (!changed) {
+         waitingTillGetOutlineIsCalled = false;
+         return null;
+      }
+      offset = 0;
+      for (ProjectedModel projection : projections) {
+         System.arraycopy(projection.silhouettePolygon, 0, publishedOutline, offset, projection.silhouettePolygon.length);
+         offset += projection.silhouettePolygon.length;
+         System.arraycopy(getOutlineShadow(projection), 0, publishedOutline, offset, projection.shadowPolygon.length);
+         offset += projection.shadowPolygon.length;
+      }
+      return getOutline();
    }
 
-   public synchronized void paintControl(Display display, GC gc) {
-      if ((display == null) || display.isDisposed() || (gc == null) || gc.isDisposed()) {
-         return;
+   /* The shadow's part of the outline, which is just the silhouette again (of the same length) when shadows are off. */
+   private int[] getOutlineShadow(ProjectedModel projection) {
+      return shadowsEnabled ? projection.shadowPolygon : projection.silhouettePolygon;
+   }
+
+   /* @return true if any of the points differs by more than a pixel from the published outline at the given offset */
+   private boolean hasOutlineMoved(int[] points, int offset) {
+      for (int i = 0; i < points.length; i++) {
+         if (Math.abs(points[i] - publishedOutline[offset + i]) > 1) {
+            return true;
+         }
       }
-      paintByFaces(gc);
-
-      // Dispose of all the colors used:
-      disposeColors();
-   }
-
-   private void paintByFaces(GC gc) {
-      Color currentColor = getColor(gc, 0, 0);
-
-      // Color the shadows first, they should always be farthest away:
-      gc.setForeground(currentColor);
-      gc.setBackground(currentColor);
-      for (Face face : shadows) {
-         int[] points = getPoints(face);
-         gc.fillPolygon(points);
-      }
-
-      // Order the faces so we draw the farthest away faces first
-      List<ColoredFace> facesNotFacingAway = new ArrayList<>();
-      for (Model model : data) {
-         facesNotFacingAway.addAll(model.getColoredFaces().stream()
-                                        .filter(face -> !isFacingAway(face))
-                                        .collect(Collectors.toList()));
-      }
-      facesNotFacingAway.sort((Comparator<Face>) (arg0, arg1) -> {
-         float center0 = (viewTransform.multiply(arg0.getVertexCenter())).getZ();
-         float center1 = (viewTransform.multiply(arg1.getVertexCenter())).getZ();
-         return Float.compare(center0, center1);
-      });
-
-      // Then draw the faces:
-      for (ColoredFace face : facesNotFacingAway) {
-         Tuple3 normal = face.getCommonNormal();
-         float brightness = lightSource.dotProduct(normal);
-         brightness = (Math.max(0, brightness) * (LIGHTEST_COLOR - DARKEST_COLOR)) + DARKEST_COLOR;
-
-         int[] points = getPoints(face);
-         Rectangle bounds = getBounds(points);
-
-         int baseRGB = face.getColor();
-         Color baseColor = getColor(gc, baseRGB, brightness);
-         gc.setForeground(baseColor);
-         gc.setBackground(baseColor);
-         currentColor = baseColor;
-         gc.fillPolygon(points);
-        for (int y0 = Math.max(0, -bounds.y); y0 < bounds.height; y0++) {
-           int y = y0 + bounds.y;
-           for (int x0 = Math.max(0, -bounds.x); x0 < bounds.width; x0++) {
-              int x = x0 + bounds.x;
-              Color color = drawPointOfFace(gc, face, currentColor, baseRGB, brightness, points, x, y);
-              if (color != null) {
-                 currentColor = color;
-               }
-            }
+      return false;
+   }
+
+   /**
+    * @return the shadow of each model on the floor, as a convex polygon in screen coordinates, or no polygons at all
+    *         when shadows are off.
+    */
+   public synchronized List<int[]> getShadowPolygons() {
+      ensureProjected();
+      List<int[]> polygons = new ArrayList<>();
+      if (shadowsEnabled) {
+         for (ProjectedModel projection : projections) {
+            polygons.add(projection.shadowPolygon);
          }
       }
+      return polygons;
    }
 
-   private static Rectangle getBounds(int[] points) {
-      int minX = points[0];
-      int maxX = points[0];
-      int minY = points[1];
-      int maxY = points[1];
-      for (int i=2 ; i<points.length ; i += 2) {
-         minX = Math.min(minX, points[i]);
-         maxX = Math.max(maxX, points[i]);
-         minY = Math.min(minY, points[i+1]);
-         maxY = Math.max(maxY, points[i+1]);
+   /**
+    * Renders just the models (not their shadows) into the given frame buffer, sized to cover a screen of the given
+    * size at the render scale. Pixels that no face is drawn on are left transparent. Once the world has settled,
+    * the frame already in the buffer is still correct, so it is only rendered again when something has changed
+    * since the last frame rendered into the same buffer.
+    *
+    * @return true if the frame was rendered again, false if the buffer already held it.
+    */
+   public synchronized boolean renderModels(FrameBuffer target, int screenWidth, int screenHeight) {
+      ensureProjected();
+      if (target.setSize((int) Math.ceil(screenWidth * renderScale), (int) Math.ceil(screenHeight * renderScale)) ||
+          (target != lastModelTarget)) {
+         frameIsCurrent = false;
       }
-      return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+      if (frameIsCurrent) {
+         return false;
+      }
+      target.clear();
+      paintByFaces(target);
+      lastModelTarget = target;
+      frameIsCurrent = true;
+      return true;
    }
 
-   private Color drawPointOfFace(GC gc, Face face, Color currentColor, int baseRGB, float brightness, int[] points, int x, int y) {
-      Color color = getColorOfPointOnFace(gc, face, currentColor, baseRGB, brightness, points, x, y);
-      if (color != null) {
-         if (currentColor != color) {
-            gc.setForeground(color);
+   /**
+    * Renders the models and their shadows into the given frame buffer, at its current size, without any SWT resources.
+    * The frame is rendered at the render scale, so a render scale below 1 only fills that much of the frame buffer.
+    */
+   public synchronized void render(FrameBuffer target) {
+      ensureProjected();
+      target.clear();
+      paintShadows(target);
+      paintByFaces(target);
+   }
+
+   /* Fills each (convex) shadow polygon as a fan of triangles from its first point, at the render scale. */
+   private void paintShadows(FrameBuffer target) {
+      if (!shadowsEnabled) {
+         return;
+      }
+      int shadowRGB = shade(0, 0);
+      float s = renderScale;
+      Rasterizer.SpanShader shader = (y, xStart, xEnd) -> target.fillSpan(y, xStart, xEnd, shadowRGB);
+      for (ProjectedModel projection : projections) {
+         int[] points = projection.shadowPolygon;
+         for (int p = 4; p < points.length; p += 2) {
+            Rasterizer.fillTriangle(Math.round(points[0] * s),     Math.round(points[1] * s),
+                                    Math.round(points[p - 2] * s), Math.round(points[p - 1] * s),
+                                    Math.round(points[p] * s),     Math.round(points[p + 1] * s),
+                                    0, 0, target.getWidth(), target.getHeight(), shader);
          }
-         gc.drawPoint(x, y);
-      }
-      return color;
-   }
-   private Color getColorOfPointOnFace(GC gc, Face face, Color currentColor, int baseRGB, float brightness, int[] points, int x, int y) {
-      Tuple2 textureCoordCenter = getTextureCoord(face, points, x, y);
-      if (textureCoordCenter != null) {
-         float textureWidth  = 0;
-         float textureHeight = 0;
-         Tuple2 textureCoordOffsetX = getTextureCoord(face, points, x+1, y);
-         if (textureCoordOffsetX != null) {
-            textureWidth  = (textureCoordOffsetX.getX() - textureCoordCenter.getX()) * texture.getWidth();
+      }
+   }
+
+   /**
+    * @return the bounds of the outline of the models and their shadows, as {minX, minY, maxX, maxY} (inclusive).
+    */
+   public synchronized int[] getOutlineBounds() {
+      ensureProjected();
+      int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+      for (ProjectedModel projection : projections) {
+         for (int[] points : new int[][] {projection.silhouettePolygon, getOutlineShadow(projection)}) {
+            for (int p = 0; p < points.length; p += 2) {
+               bounds[0] = Math.min(bounds[0], points[p]);
+               bounds[1] = Math.min(bounds[1], points[p + 1]);
+               bounds[2] = Math.max(bounds[2], points[p]);
+               bounds[3] = Math.max(bounds[3], points[p + 1]);
+            }
          }
-         else {
-            textureCoordOffsetX = getTextureCoord(face, points, x-1, y);
-            if (textureCoordOffsetX != null) {
-               textureWidth  = (textureCoordOffsetX.getX() - textureCoordCenter.getX()) * texture.getWidth() * -1;
+      }
+      return bounds;
+   }
+
+   private void paintByFaces(FrameBuffer target) {
+      List<FaceReference> faces = new ArrayList<>();
+      for (ProjectedModel projection : projections) {
+         for (int f = 0; f < projection.faceCount; f++) {
+            // don't draw faces that face away:
+            if (!projection.facingAway[f]) {
+               faces.add(getFaceReference(projection, f));
             }
          }
-         Tuple2 textureCoordOffsetY = getTextureCoord(face, points, x, y+1);
-         if (textureCoordOffsetY != null) {
-            textureHeight = (textureCoordOffsetY.getY() - textureCoordCenter.getY()) * texture.getHeight();
+      }
+      lastFrameFaceCount = faces.size();
+      lastFrameLodFaceCount = 0;
+      for (FaceReference face : faces) {
+         if (face.flatRGB != -1) {
+            lastFrameLodFaceCount++;
          }
-         else {
-            textureCoordOffsetY = getTextureCoord(face, points, x, y-1);
-            if (textureCoordOffsetY != null) {
-               textureHeight = (textureCoordOffsetY.getY() - textureCoordCenter.getY()) * texture.getHeight() * -1;
-            }
+      }
+      if (useDepthBuffer) {
+         // The depth buffer resolves which face is in front at each pixel, so the draw order doesn't matter
+         target.clearDepths();
+      }
+      else {
+         // Order the faces so we draw the farthest away faces first
+         faces.sort(Comparator.comparingDouble(face -> face.viewZ));
+      }
+
+      if (parallelRendering && (renderPool.getParallelism() > 1)) {
+         tileBins.reset(target.getWidth(), target.getHeight());
+         long coveredPixels = 0;
+         for (int i = 0; i < faces.size(); i++) {
+            FaceReference face = faces.get(i);
+            coveredPixels += tileBins.add(i, face.projection.facePoints[face.faceIndex]);
          }
-         int xt = Math.round(textureCoordCenter.getX() * texture.getWidth());
-         int yt = Math.round(textureCoordCenter.getY() * texture.getHeight());
-         if ((xt > 0) && (yt > 0) && (xt < texture.getWidth()) && (yt < texture.getHeight())) {
-            int textureRGB = texture.getRGB(xt, yt) & 0x00ffffff;
-            if ((textureWidth > 1.0f) || (textureHeight > 1.0f)) {
-               int red   = 0;
-               int green = 0;
-               int blue  = 0;
-               int count = 0;
-               float stepSizeX = Math.max(0.2f, Math.abs(textureWidth / 10));
-               float stepSizeY = Math.max(0.2f, Math.abs(textureHeight / 10));
-               for (float x1 = 0-(textureWidth/2f) ; x1 < (textureWidth/2f) ; x1 += stepSizeX) {
-                  for (float y1 = 0-(textureHeight/2f) ; y1 < (textureHeight/2f) ; y1 += stepSizeY) {
-                     if (((x1+xt) > 0) && ((y1+yt) > 0) && (Math.round(x1 + xt) < texture.getWidth()) && (Math.round(y1 + yt) < texture.getHeight())) {
-                        int textureRGB_ = texture.getRGB(Math.round(x1 + xt), Math.round(y1 + yt)) & 0x00ffffff;
-                        red   += (textureRGB_ >> 16) & 0xFF;
-                        green += (textureRGB_ >>  8) & 0xFF;
-                        blue  += (textureRGB_      ) & 0xFF;
-                        count++;
-                     }
-                  }
-               }
-               if (count > 0) {
-                  red   = red   / count;
-                  green = green / count;
-                  blue  = blue  / count;
-                  textureRGB = (red << 16) | (green << 8) | blue;
-               }
-            }
-            if (textureRGB != 0) {
-               int red   = (textureRGB >> 16) & 0xFF;
-               int green = (textureRGB >>  8) & 0xFF;
-               int blue  = (textureRGB      ) & 0xFF;
-               red   += (baseRGB >> 16) & 0xFF;
-               green += (baseRGB >>  8) & 0xFF;
-               blue  += (baseRGB      ) & 0xFF;
-
-               textureRGB = (Math.min(0xFF, red) << 16) | (Math.min(0xFF, green) << 8) | Math.min(0xFF, blue);
-               return getColor(gc, textureRGB, brightness);
-            }
+         if (coveredPixels >= parallelPixelThreshold) {
+            renderPool.invoke(new TileTask(target, faces, 0, tileBins.getTileCount()));
+            return;
          }
       }
-      return null;
+
+      FaceShader shader = new FaceShader(target);
+      for (FaceReference face : faces) {
+         paintFace(shader, face, 0, 0, target.getWidth(), target.getHeight());
+      }
+   }
+
+   /*
+    * Lights the face, and decides whether it is small enough on the screen (or its texture dense enough)
+    * that filling it with a single color would look the same as texturing it.
+    */
+   private FaceReference getFaceReference(ProjectedModel projection, int faceIndex) {
+      float brightness = (projection.normalX[faceIndex] * lightSource.getX()) +
+                         (projection.normalY[faceIndex] * lightSource.getY()) +
+                         (projection.normalZ[faceIndex] * lightSource.getZ());
+      brightness = (Math.max(0, brightness) * (LIGHTEST_COLOR - DARKEST_COLOR)) + DARKEST_COLOR;
+
+      int flatRGB = -1;
+      float screenArea = projection.getScreenArea(faceIndex);
+      if ((screenArea < lodPixelThreshold) || (projection.texelAreas[faceIndex] > (screenArea * lodTexelsPerPixel))) {
+         // The base color plus the average of its texels, just as each textured pixel adds its texel to the base color
+         int baseRGB = projection.colors[faceIndex];
+         int averageTexel = projection.averageTexels[faceIndex];
+         int red   = Math.min(0xFF, ((baseRGB >> 16) & 0xFF) + ((averageTexel >> 16) & 0xFF));
+         int green = Math.min(0xFF, ((baseRGB >>  8) & 0xFF) + ((averageTexel >>  8) & 0xFF));
+         int blue  = Math.min(0xFF, ( baseRGB        & 0xFF) + ( averageTexel        & 0xFF));
+         flatRGB = FrameBuffer.opaque(shade((red << 16) | (green << 8) | blue, brightness));
+      }
+      return new FaceReference(projection, faceIndex, brightness, flatRGB);
+   }
+
+   private void paintFace(FaceShader shader, FaceReference face,
+                          int clipMinX, int clipMinY, int clipMaxX, int clipMaxY) {
+      ProjectedModel projection = face.projection;
+      int[] points = projection.facePoints[face.faceIndex];
+      shader.setFace(projection.faces.get(face.faceIndex), projection.colors[face.faceIndex], face.brightness,
+                     face.flatRGB, points, projection.faceInverseDepths[face.faceIndex]);
+      Rasterizer.fillFace(points, clipMinX, clipMinY, clipMaxX, clipMaxY, shader);
    }
 
-   private static Tuple2 getTextureCoord(Face face, int[] points, int x, int y) {
-      if (isInside(points[0], points[1], points[2], points[3], points[4], points[5], x, y)) {
-         return TextureMapper.getTextureMap(x, y,
-                                            points[0], points[1], points[2], points[3], points[4], points[5],
-                                            face.getTexCoord(0), face.getTexCoord(1), face.getTexCoord(2));
+   /*
+    * Shades a range of screen tiles. Every tile only writes the pixels (and depths) inside of its own bounds,
+    * so the tiles can be shaded at the same time into the same frame buffer. Each tile draws its faces in the
+    * same order as the whole frame would be drawn, so the result is the same as drawing it on one thread.
+    */
+   private class TileTask extends RecursiveAction
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final FrameBuffer         target;
+      private final List<FaceReference> faces;
+      private final int                 firstTile;
+      private final int                 endTile;
+
+      TileTask(FrameBuffer target, List<FaceReference> faces, int firstTile, int endTile) {
+         this.target = target;
+         this.faces = faces;
+         this.firstTile = firstTile;
+         this.endTile = endTile;
       }
-      if (face.vertexCount == 4) {
-         if (isInside(points[4], points[5], points[6], points[7], points[0], points[1], x, y)) {
-            return TextureMapper.getTextureMap(x, y,
-                                               points[4], points[5], points[6], points[7], points[0], points[1],
-                                               face.getTexCoord(2), face.getTexCoord(3), face.getTexCoord(0));
+
+      @Override
+      protected void compute() {
+         if ((endTile - firstTile) > TILES_PER_TASK) {
+            int middle = (firstTile + endTile) >>> 1;
+            invokeAll(new TileTask(target, faces, firstTile, middle),
+                      new TileTask(target, faces, middle, endTile));
+            return;
+         }
+         FaceShader shader = new FaceShader(target);
+         for (int tile = firstTile; tile < endTile; tile++) {
+            int[] items = tileBins.getItems(tile);
+            int itemCount = tileBins.getItemCount(tile);
+            for (int i = 0; i < itemCount; i++) {
+               FaceReference face = faces.get(items[i]);
+               paintFace(shader, face,
+                         tileBins.getMinX(tile), tileBins.getMinY(tile),
+                         tileBins.getMaxX(tile), tileBins.getMaxY(tile));
+            }
          }
       }
-      return null;
    }
 
-   final HashMap<Integer, HashMap<Float, Color>> colorsByRgbBrightness = new HashMap<>();
-   private Color getColor(GC gc, int rgb, float brightness) {
-      HashMap<Float, Color> colorsByBrightness = colorsByRgbBrightness.computeIfAbsent(rgb, k -> new HashMap<>());
-      Color color = colorsByBrightness.get(brightness);
-      if (color == null) {
-         color = new Color(gc.getDevice(),
-                           Math.round( (rgb >> 16)         * brightness),
-                           Math.round(((rgb >>  8) & 0xff) * brightness),
-                           Math.round(( rgb        & 0xff) * brightness));
-         colorsByBrightness.put(brightness, color);
+   private static class FaceReference
+   {
+      final ProjectedModel projection;
+      final int            faceIndex;
+      final float          viewZ;
+      final float          brightness;
+      /* The single color to fill the face with, or -1 to texture it */
+      final int            flatRGB;
+
+      FaceReference(ProjectedModel projection, int faceIndex, float brightness, int flatRGB) {
+         this.projection = projection;
+         this.faceIndex = faceIndex;
+         this.brightness = brightness;
+         this.flatRGB = flatRGB;
+         // the view space Z of the center of the face
+         float[] inverseDepths = projection.faceInverseDepths[faceIndex];
+         float totalZ = 0;
+         for (float inverseDepth : inverseDepths) {
+            totalZ += CAMERA_DISTANCE - (1f / inverseDepth);
+         }
+         viewZ = totalZ / inverseDepths.length;
       }
-      return color;
    }
-   final HashMap<Integer, HashMap<Integer, HashMap<Integer, Color>>> colorsByRGB = new HashMap<>();
 
-   private void disposeColors() {
-      for (HashMap<Integer, HashMap<Integer, Color>> colorsByGB : colorsByRGB.values()) {
-         for (HashMap<Integer, Color> colorsByB : colorsByGB.values()) {
-            for (Color color : colorsByB.values()) {
-               color.dispose();
+   private class FaceShader implements Rasterizer.FaceSpanShader
+   {
+      private final FrameBuffer         target;
+      private final TriangleGradients[] gradients = {new TriangleGradients(), new TriangleGradients()};
+      private       int                 baseRGB;
+      private       int                 shadedBaseRGB;
+      private       float               brightness;
+      private       int                 flatRGB;
+
+      FaceShader(FrameBuffer target) {
+         this.target = target;
+      }
+
+      /* Sets up the texture mapping for both halves of the face, once for the whole face. */
+      void setFace(Face face, int baseRGB, float brightness, int flatRGB, int[] points, float[] inverseDepths) {
+         this.baseRGB = baseRGB;
+         this.shadedBaseRGB = FrameBuffer.opaque(shade(baseRGB, brightness));
+         this.brightness = brightness;
+         this.flatRGB = flatRGB;
+         setupTriangle(gradients[0], face, points, inverseDepths, 0, 1, 2);
+         if (face.vertexCount == 4) {
+            setupTriangle(gradients[1], face, points, inverseDepths, 2, 3, 0);
+         }
+      }
+
+      private void setupTriangle(TriangleGradients gradient, Face face, int[] points, float[] inverseDepths,
+                                 int v0, int v1, int v2) {
+         gradient.setup(points[v0 * 2], points[(v0 * 2) + 1], inverseDepths[v0], face.getTexCoord(v0),
+                        points[v1 * 2], points[(v1 * 2) + 1], inverseDepths[v1], face.getTexCoord(v1),
+                        points[v2 * 2], points[(v2 * 2) + 1], inverseDepths[v2], face.getTexCoord(v2),
+                        perspectiveCorrectTextures);
+      }
+
+      @Override
+      public void shadeSpan(int triangleIndex, int y, int xStart, int xEnd) {
+         TriangleGradients gradient = gradients[triangleIndex];
+         int[] pixels = target.getPixels();
+         float[] depths = useDepthBuffer ? target.getDepths() : null;
+         int row = y * target.getWidth();
+         if (flatRGB != -1) {
+            shadeFlatSpan(gradient, pixels, depths, row, y, xStart, xEnd);
+            return;
+         }
+         // Each attribute is evaluated from the start of its row, rather than stepped along the span, so a pixel
+         // gets exactly the same value no matter where the span that covers it starts (such as at a tile edge).
+         float z0  = gradient.getDepth(0, y);
+         float q0  = gradient.getQ(0, y);
+         float uq0 = gradient.getUQ(0, y);
+         float vq0 = gradient.getVQ(0, y);
+         for (int x = xStart; x < xEnd; x++) {
+            float z  = z0  + (gradient.dzdx  * x);
+            float q  = q0  + (gradient.dqdx  * x);
+            float uq = uq0 + (gradient.duqdx * x);
+            float vq = vq0 + (gradient.dvqdx * x);
+            if (depths != null) {
+               // Hidden pixels are rejected before any texture work is done
+               if (z <= depths[row + x]) {
+                  continue;
+               }
+               depths[row + x] = z;
             }
-            colorsByB.clear();
+            float w = 1f / q;
+            float u = uq * w;
+            float v = vq * w;
+            // The texel footprint of this pixel comes straight from the derivatives of the mapping
+            float texelsWide = (gradient.duqdx - (u * gradient.dqdx)) * w * textureWidth;
+            float texelsHigh = (gradient.dvqdy - (v * gradient.dqdy)) * w * textureHeight;
+            int rgb = getColorOfPointOnFace(u, v, texelsWide, texelsHigh, baseRGB, brightness);
+            pixels[row + x] = (rgb == -1) ? shadedBaseRGB : FrameBuffer.opaque(rgb);
          }
-         colorsByGB.clear();
       }
-      colorsByRGB.clear();
-      for (HashMap<Float, Color> colorsByBrightness : colorsByRgbBrightness.values()) {
-         for (Color color : colorsByBrightness.values()) {
-            color.dispose();
+
+      /* Fills the span with the face's single color, which only needs the depth of each pixel. */
+      private void shadeFlatSpan(TriangleGradients gradient, int[] pixels, float[] depths, int row, int y, int xStart, int xEnd) {
+         if (depths == null) {
+            Arrays.fill(pixels, row + xStart, row + xEnd, flatRGB);
+            return;
+         }
+         float z0 = gradient.getDepth(0, y);
+         for (int x = xStart; x < xEnd; x++) {
+            float z = z0 + (gradient.dzdx * x);
+            if (z > depths[row + x]) {
+               depths[row + x] = z;
+               pixels[row + x] = flatRGB;
+            }
+         }
+      }
+   }
+
+   /* Returns the shaded color of the texture at the texture coordinate (u,v), or -1 if the texture doesn't cover it.
+    * The texelsWide and texelsHigh are the number of texels covered by the pixel in each direction.
+    */
+   private int getColorOfPointOnFace(float u, float v, float texelsWide, float texelsHigh, int baseRGB, float brightness) {
+      int xt = Math.round(u * textureWidth);
+      int yt = Math.round(v * textureHeight);
+      if ((xt > 0) && (yt > 0) && (xt < textureWidth) && (yt < textureHeight)) {
+         // The mipmap level that matches the pixel's footprint already holds the average of the covered texels
+         float footprint = Math.max(Math.abs(texelsWide), Math.abs(texelsHigh));
+         int textureRGB = texture.sample(u, v, footprint, textureFiltering);
+         if (textureRGB != 0) {
+            int red   = (textureRGB >> 16) & 0xFF;
+            int green = (textureRGB >>  8) & 0xFF;
+            int blue  = (textureRGB      ) & 0xFF;
+            red   += (baseRGB >> 16) & 0xFF;
+            green += (baseRGB >>  8) & 0xFF;
+            blue  += (baseRGB      ) & 0xFF;
+
+            textureRGB = (Math.min(0xFF, red) << 16) | (Math.min(0xFF, green) << 8) | Math.min(0xFF, blue);
+            return shade(textureRGB, brightness);
          }
-         colorsByBrightness.clear();
       }
-      colorsByRgbBrightness.clear();
+      return -1;
+   }
+
+   private static int shade(int rgb, float brightness) {
+      return (Math.round( (rgb >> 16)         * brightness) << 16) |
+             (Math.round(((rgb >>  8) & 0xff) * brightness) <<  8) |
+              Math.round(( rgb        & 0xff) * brightness);
+   }
+
+   private final TileBins    tileBins    = new TileBins();
+
+   /**
+    * Stops this world, once the window showing it is closed.
+    */
+   public synchronized void dispose() {
+      // let any waiting animation thread see that it is time to quit
+      wake();
    }
 
    /* A utility function to calculate area of triangle formed by (x1, y1), (x2, y2) and (x3, y3) */
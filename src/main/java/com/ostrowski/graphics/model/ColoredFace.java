@@ -6,7 +6,7 @@ public class ColoredFace extends Face
    public ColoredFace(Face base, int colorRGB) {
       super(base.vertexCount, base.getLabel());
       for (int i = 0; i<base.vertexCount; i++) {
-         addPoint(base.verts[i].clone(), base.texs[i].clone(), base.norms[i].clone());
+         addPoint(base.verts[i].clone(), base.texs[i].clone(), base.norms[i].clone(), base.vertexIndices[i]);
       }
       this.colorRGB = colorRGB;
    }
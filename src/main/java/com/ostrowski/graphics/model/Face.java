@@ -14,6 +14,8 @@ public class Face implements Cloneable {
    protected final Tuple3[] norms;
    /** The texture coordinates making up this face */
    protected final Tuple2[] texs;
+   /** The index of each point in the vertex list of the ObjData this face belongs to, or -1 if not known */
+   protected final int[]    vertexIndices;
    private final String     label;
    /** The number of points */
    protected       int      points = 0;
@@ -29,6 +31,8 @@ public class Face implements Cloneable {
       verts = new Tuple3[points];
       norms = new Tuple3[points];
       texs = new Tuple2[points];
+      vertexIndices = new int[points];
+      Arrays.fill(vertexIndices, -1);
       this.label = label;
    }
 
@@ -40,9 +44,22 @@ public class Face implements Cloneable {
     * @param norm the normal information for the point
     */
    public void addPoint(Tuple3 vert, Tuple2 tex, Tuple3 norm) {
+      addPoint(vert, tex, norm, -1);
+   }
+
+   /**
+    * Add a single point to this face
+    *
+    * @param vert The vertex location information for the point
+    * @param tex The texture coordinate information for the point
+    * @param norm the normal information for the point
+    * @param vertexIndex the index of the vertex in the vertex list of the owning ObjData
+    */
+   public void addPoint(Tuple3 vert, Tuple2 tex, Tuple3 norm, int vertexIndex) {
       verts[points] = vert;
       texs[points]  = tex;
       norms[points] = norm;
+      vertexIndices[points] = vertexIndex;
 
       points++;
    }
@@ -83,6 +100,16 @@ public class Face implements Cloneable {
       return norms[p];
    }
 
+   /**
+    * Get the index of a specified point within the vertex list of the ObjData this face belongs to.
+    *
+    * @param p The index of the point within this face
+    * @return The index of the vertex in the ObjData, or -1 if it isn't known
+    */
+   public int getVertexIndex(int p) {
+      return vertexIndices[p];
+   }
+
    public String getLabel() {
       return label;
    }
@@ -110,15 +137,15 @@ public class Face implements Cloneable {
 //         texs[sourceIndex] = texs[destIndex];
 //         texs[destIndex] = tempT2;
          Face face = new Face(vertexCount, label);
-         face.addPoint(verts[0], texs[0], norms[0]);
+         face.addPoint(verts[0], texs[0], norms[0], vertexIndices[0]);
          if (verts.length == 3) {
-            face.addPoint(verts[2], texs[2], norms[2]);
+            face.addPoint(verts[2], texs[2], norms[2], vertexIndices[2]);
          }
          if (verts.length == 4) {
-            face.addPoint(verts[3], texs[3], norms[3]);
-            face.addPoint(verts[2], texs[2], norms[2]);
+            face.addPoint(verts[3], texs[3], norms[3], vertexIndices[3]);
+            face.addPoint(verts[2], texs[2], norms[2], vertexIndices[2]);
          }
-         face.addPoint(verts[1], texs[1], norms[1]);
+         face.addPoint(verts[1], texs[1], norms[1], vertexIndices[1]);
          return face;
       }
       throw new IllegalStateException();
@@ -164,7 +191,7 @@ public class Face implements Cloneable {
       Face dup = new Face(points, label);
       for (int i = 0; i < points; i++) {
          //dup.addPoint(verts[i], texs[i], norms[i]);
-         dup.addPoint(verts[i].clone(), texs[i].clone(), norms[i].clone());
+         dup.addPoint(verts[i].clone(), texs[i].clone(), norms[i].clone(), vertexIndices[i]);
       }
       return dup;
    }
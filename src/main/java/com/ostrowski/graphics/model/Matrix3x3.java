@@ -11,6 +11,12 @@ public class Matrix3x3 {
       row[1] = row1;
       row[2] = row2;
    }
+   /** @return the element at the given row and column (each from 0 to 2) */
+   public float get(int rowIndex, int column) {
+      Tuple3 r = row[rowIndex];
+      return (column == 0) ? r.x : ((column == 1) ? r.y : r.z);
+   }
+
    public Matrix3x3 transpose() {
       Tuple3 newRow0 = new Tuple3(row[0].x, row[1].x, row[2].x);
       Tuple3 newRow1 = new Tuple3(row[0].y, row[1].y, row[2].y);
@@ -19,17 +25,33 @@ public class Matrix3x3 {
    }
 
    public Matrix3x3 multiply(Matrix3x3 m) {
-      Matrix3x3 mT = m.transpose();
-      Tuple3 newRow0 = new Tuple3(mT.row[0].dotProduct(row[0]), mT.row[1].dotProduct(row[0]), mT.row[2].dotProduct(row[0]));
-      Tuple3 newRow1 = new Tuple3(mT.row[0].dotProduct(row[1]), mT.row[1].dotProduct(row[1]), mT.row[2].dotProduct(row[1]));
-      Tuple3 newRow2 = new Tuple3(mT.row[0].dotProduct(row[2]), mT.row[1].dotProduct(row[2]), mT.row[2].dotProduct(row[2]));
-      return new Matrix3x3(newRow0, newRow1, newRow2);
+      return new Matrix3x3(multiplyRow(row[0], m), multiplyRow(row[1], m), multiplyRow(row[2], m));
+   }
+
+   /* One row of this matrix times m, read straight from m's columns rather than from a transposed copy of m */
+   private static Tuple3 multiplyRow(Tuple3 r, Matrix3x3 m) {
+      Tuple3 m0 = m.row[0];
+      Tuple3 m1 = m.row[1];
+      Tuple3 m2 = m.row[2];
+      return new Tuple3((r.x * m0.x) + (r.y * m1.x) + (r.z * m2.x),
+                        (r.x * m0.y) + (r.y * m1.y) + (r.z * m2.y),
+                        (r.x * m0.z) + (r.y * m1.z) + (r.z * m2.z));
    }
 
    public Tuple3 multiply(Tuple3 t) {
       return new Tuple3(t.dotProduct(row[0]), t.dotProduct(row[1]), t.dotProduct(row[2]));
    }
 
+   /** Stores this matrix multiplied by the point (x, y, z) in dest, and returns dest. */
+   public MutableTuple3 multiplyInto(float x, float y, float z, MutableTuple3 dest) {
+      Tuple3 r0 = row[0];
+      Tuple3 r1 = row[1];
+      Tuple3 r2 = row[2];
+      return dest.set((r0.x * x) + (r0.y * y) + (r0.z * z),
+                      (r1.x * x) + (r1.y * y) + (r1.z * z),
+                      (r2.x * x) + (r2.y * y) + (r2.z * z));
+   }
+
    /* Computes a rotation matrix to rotates a point in space first about the x axis by the value of the first parameter,
     * then about the Y-axis by the value of the second parameter, and then about the Z-axis by the 3rd.
     * All parameters must be in Degrees.
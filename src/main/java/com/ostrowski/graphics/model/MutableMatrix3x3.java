@@ -0,0 +1,79 @@
+package com.ostrowski.graphics.model;
+
+/**
+ * A 3x3 matrix that is changed in place, held in nine floats, for transforms that are rebuilt over and over,
+ * such as the orientation of a moving model. Each operation stores its result in this matrix, and returns this matrix.
+ */
+public class MutableMatrix3x3
+{
+   private float m00 = 1, m01 = 0, m02 = 0;
+   private float m10 = 0, m11 = 1, m12 = 0;
+   private float m20 = 0, m21 = 0, m22 = 1;
+
+   public MutableMatrix3x3() {
+   }
+
+   public MutableMatrix3x3(Matrix3x3 other) {
+      set(other);
+   }
+
+   /** @return the element at the given row and column (each from 0 to 2) */
+   public float get(int rowIndex, int column) {
+      switch ((rowIndex * 3) + column) {
+         case 0: return m00;
+         case 1: return m01;
+         case 2: return m02;
+         case 3: return m10;
+         case 4: return m11;
+         case 5: return m12;
+         case 6: return m20;
+         case 7: return m21;
+         default: return m22;
+      }
+   }
+
+   public MutableMatrix3x3 set(Matrix3x3 other) {
+      m00 = other.get(0, 0); m01 = other.get(0, 1); m02 = other.get(0, 2);
+      m10 = other.get(1, 0); m11 = other.get(1, 1); m12 = other.get(1, 2);
+      m20 = other.get(2, 0); m21 = other.get(2, 1); m22 = other.get(2, 2);
+      return this;
+   }
+
+   public MutableMatrix3x3 set(MutableMatrix3x3 other) {
+      m00 = other.m00; m01 = other.m01; m02 = other.m02;
+      m10 = other.m10; m11 = other.m11; m12 = other.m12;
+      m20 = other.m20; m21 = other.m21; m22 = other.m22;
+      return this;
+   }
+
+   /**
+    * Makes this the rotation of the unit quaternion (w, x, y, z).
+    */
+   public MutableMatrix3x3 set(float w, float x, float y, float z) {
+      float xx = x * x, yy = y * y, zz = z * z;
+      float xy = x * y, xz = x * z, yz = y * z;
+      float wx = w * x, wy = w * y, wz = w * z;
+      m00 = 1 - (2 * (yy + zz)); m01 =     2 * (xy - wz);  m02 =     2 * (xz + wy);
+      m10 =     2 * (xy + wz);  m11 = 1 - (2 * (xx + zz)); m12 =     2 * (yz - wx);
+      m20 =     2 * (xz - wy);  m21 =     2 * (yz + wx);  m22 = 1 - (2 * (xx + yy));
+      return this;
+   }
+
+   public MutableMatrix3x3 set(MutableQuaternion q) {
+      return set(q.w, q.x, q.y, q.z);
+   }
+
+   /** Stores this matrix multiplied by the point (x, y, z) in dest, and returns dest. */
+   public MutableTuple3 multiplyInto(float x, float y, float z, MutableTuple3 dest) {
+      return dest.set((m00 * x) + (m01 * y) + (m02 * z),
+                      (m10 * x) + (m11 * y) + (m12 * z),
+                      (m20 * x) + (m21 * y) + (m22 * z));
+   }
+
+   /** @return a new (immutable) Matrix3x3 with the current values of this matrix */
+   public Matrix3x3 toMatrix3x3() {
+      return new Matrix3x3(new Tuple3(m00, m01, m02),
+                           new Tuple3(m10, m11, m12),
+                           new Tuple3(m20, m21, m22));
+   }
+}
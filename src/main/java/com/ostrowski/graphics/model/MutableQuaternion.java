@@ -0,0 +1,100 @@
+package com.ostrowski.graphics.model;
+
+/**
+ * A quaternion that is changed in place, for turning an orientation a little every physics step without any
+ * trig or allocation. Each operation stores its result in this quaternion, and returns this quaternion.
+ */
+public class MutableQuaternion
+{
+   /* How far the squared length may drift from 1 before the quaternion is scaled back to unit length */
+   public static final float RENORMALIZE_TOLERANCE = 1e-5f;
+   /* Half angles (in radians) below this are turned by a short series, which is as exact as a float holds */
+   private static final double SERIES_HALF_ANGLE    = 0.1;
+
+   protected float w = 1;
+   protected float x;
+   protected float y;
+   protected float z;
+
+   public MutableQuaternion() {
+   }
+
+   public float getW() {
+      return w;
+   }
+
+   public float getX() {
+      return x;
+   }
+
+   public float getY() {
+      return y;
+   }
+
+   public float getZ() {
+      return z;
+   }
+
+   public MutableQuaternion set(float w, float x, float y, float z) {
+      this.w = w;
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      return this;
+   }
+
+   public MutableQuaternion set(Quaternion other) {
+      return set(other.w, other.x, other.y, other.z);
+   }
+
+   public MutableQuaternion set(MutableQuaternion other) {
+      return set(other.w, other.x, other.y, other.z);
+   }
+
+   /**
+    * Turns this orientation by the given angle about the vector (x, y, z), which doesn't need to be a unit vector.
+    * Small turns, which are all a physics step ever makes, are computed without any trig functions.
+    */
+   public MutableQuaternion rotate(float axisX, float axisY, float axisZ, double angleInDegrees) {
+      double halfAngle = Math.toRadians(angleInDegrees) / 2;
+      double cosHalfAngle;
+      double sinHalfAngle;
+      if (Math.abs(halfAngle) < SERIES_HALF_ANGLE) {
+         double squared = halfAngle * halfAngle;
+         cosHalfAngle = 1 - ((squared / 2) * (1 - (squared / 12)));
+         sinHalfAngle = halfAngle * (1 - ((squared / 6) * (1 - (squared / 20))));
+      }
+      else {
+         cosHalfAngle = Math.cos(halfAngle);
+         sinHalfAngle = Math.sin(halfAngle);
+      }
+      double scale = sinHalfAngle / Math.sqrt((axisX * axisX) + (axisY * axisY) + (axisZ * axisZ));
+      float rw = (float) cosHalfAngle;
+      float rx = (float) (axisX * scale);
+      float ry = (float) (axisY * scale);
+      float rz = (float) (axisZ * scale);
+      // this = r * this
+      set((rw * w) - (rx * x) - (ry * y) - (rz * z),
+          ((rw * x) + (rx * w) + (ry * z)) - (rz * y),
+          ((rw * y) - (rx * z)) + (ry * w) + (rz * x),
+          (((rw * z) + (rx * y)) - (ry * x)) + (rz * w));
+      return renormalize();
+   }
+
+   /**
+    * Scales this quaternion back to unit length, if float errors have moved it more than RENORMALIZE_TOLERANCE away.
+    */
+   public MutableQuaternion renormalize() {
+      float squaredLength = (w * w) + (x * x) + (y * y) + (z * z);
+      if (Math.abs(squaredLength - 1) > RENORMALIZE_TOLERANCE) {
+         float length = (float) Math.sqrt(squaredLength);
+         set(w / length, x / length, y / length, z / length);
+      }
+      return this;
+   }
+
+   /** @return a new (immutable) Quaternion with the current values of this quaternion */
+   public Quaternion toQuaternion() {
+      return new Quaternion(w, x, y, z);
+   }
+}
@@ -0,0 +1,118 @@
+package com.ostrowski.graphics.model;
+
+/**
+ * A tuple of 3 elements that is changed in place, for arithmetic that runs too often to allocate a new Tuple3
+ * for every intermediate result, such as each step of the physics.
+ * <p>
+ * Every operation stores its result in this tuple, and returns this tuple, so operations can be chained.
+ * The arguments are always read before anything is stored, so a tuple may be passed as an argument to itself.
+ */
+public class MutableTuple3
+{
+   protected float x;
+   protected float y;
+   protected float z;
+
+   public MutableTuple3() {
+   }
+
+   public MutableTuple3(float x, float y, float z) {
+      set(x, y, z);
+   }
+
+   public MutableTuple3(Tuple3 other) {
+      set(other);
+   }
+
+   public float getX() {
+      return x;
+   }
+
+   public float getY() {
+      return y;
+   }
+
+   public float getZ() {
+      return z;
+   }
+
+   public MutableTuple3 set(float x, float y, float z) {
+      this.x = x;
+      this.y = y;
+      this.z = z;
+      return this;
+   }
+
+   public MutableTuple3 set(Tuple3 other) {
+      return set(other.x, other.y, other.z);
+   }
+
+   public MutableTuple3 set(MutableTuple3 other) {
+      return set(other.x, other.y, other.z);
+   }
+
+   public MutableTuple3 add(float dx, float dy, float dz) {
+      return set(x + dx, y + dy, z + dz);
+   }
+
+   public MutableTuple3 add(MutableTuple3 other) {
+      return set(x + other.x, y + other.y, z + other.z);
+   }
+
+   public MutableTuple3 subtract(MutableTuple3 other) {
+      return set(x - other.x, y - other.y, z - other.z);
+   }
+
+   /** Adds the other tuple multiplied by d, without changing the other tuple. */
+   public MutableTuple3 addScaled(Tuple3 other, float d) {
+      return set(x + (other.x * d), y + (other.y * d), z + (other.z * d));
+   }
+
+   public MutableTuple3 addScaled(MutableTuple3 other, float d) {
+      return set(x + (other.x * d), y + (other.y * d), z + (other.z * d));
+   }
+
+   public MutableTuple3 multiply(float d) {
+      return set(x * d, y * d, z * d);
+   }
+
+   public MutableTuple3 divide(float d) {
+      return set(x / d, y / d, z / d);
+   }
+
+   public float dotProduct(Tuple3 other) {
+      return (x * other.x) + (y * other.y) + (z * other.z);
+   }
+
+   public float dotProduct(MutableTuple3 other) {
+      return (x * other.x) + (y * other.y) + (z * other.z);
+   }
+
+   /** Stores the cross product of a and b (in that order) in this tuple. */
+   public MutableTuple3 setCrossProduct(MutableTuple3 a, Tuple3 b) {
+      return set((a.y * b.z) - (a.z * b.y),
+                 (a.z * b.x) - (a.x * b.z),
+                 (a.x * b.y) - (a.y * b.x));
+   }
+
+   /** Stores the cross product of a and b (in that order) in this tuple, which may be either of them. */
+   public MutableTuple3 setCrossProduct(MutableTuple3 a, MutableTuple3 b) {
+      return set((a.y * b.z) - (a.z * b.y),
+                 (a.z * b.x) - (a.x * b.z),
+                 (a.x * b.y) - (a.y * b.x));
+   }
+
+   public double magnitude() {
+      return Math.sqrt(dotProduct(this));
+   }
+
+   /** @return a new (immutable) Tuple3 with the current values of this tuple */
+   public Tuple3 toTuple3() {
+      return new Tuple3(x, y, z);
+   }
+
+   @Override
+   public String toString() {
+      return "MutableTuple3:{" + x + ", " + y + ", " + z + "}";
+   }
+}
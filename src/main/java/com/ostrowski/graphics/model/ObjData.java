@@ -284,10 +284,10 @@ public class ObjData implements Cloneable
             if (parts.hasMoreElements()) {
                int n = Integer.parseInt(parts.nextToken());
                // We have the indexes, we can now add the point data to the face.
-               face.addPoint(verts.get(v - 1), texCoords.get(t - 1), normals.get(n - 1));
+               face.addPoint(verts.get(v - 1), texCoords.get(t - 1), normals.get(n - 1), v - 1);
             }
             else {
-               face.addPoint(verts.get(v - 1), new Tuple2(0, 0), normals.get(t - 1));
+               face.addPoint(verts.get(v - 1), new Tuple2(0, 0), normals.get(t - 1), v - 1);
             }
          }
       } catch (Exception e) {
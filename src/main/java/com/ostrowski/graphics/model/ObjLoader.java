@@ -49,4 +49,15 @@ public class ObjLoader
          return ImageIO.read(in);
       }
    }
+
+   /**
+    * Load an image from a file in the classpath, and unpack it into a texture, with all of its mipmap levels.
+    *
+    * @param ref The reference to the image file to read from the classpath
+    * @return The texture read from the file
+    * @throws IOException Indicates a failure to read the image file
+    */
+   public static Texture loadTexture(String ref) throws IOException {
+      return new Texture(loadImage(ref));
+   }
 }
@@ -0,0 +1,212 @@
+package com.ostrowski.graphics.model;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * An immutable texture, unpacked once at load time from a BufferedImage into flat int[] arrays
+ * of packed RGB values, along with its chain of successively half-sized copies (a mipmap pyramid).
+ * <p>
+ * Every row of every level is stored with a power-of-two stride, so a texel read is a shift, an add
+ * and an array load, with none of the ColorModel and Raster indirection of BufferedImage.getRGB.
+ * Texel coordinates outside of the texture are either clamped to its edge or wrapped around it.
+ * <p>
+ * Since nothing in a Texture changes after it is constructed, and all of its fields are final,
+ * a single instance can be shared by any number of rendering threads without synchronization.
+ */
+public final class Texture
+{
+   public enum Addressing {
+      /** coordinates outside of the texture read the nearest edge texel */
+      CLAMP,
+      /** coordinates outside of the texture wrap around to the opposite edge */
+      WRAP
+   }
+
+   public enum Filtering {
+      /** the nearest texel of the mipmap level nearest to the footprint */
+      NEAREST,
+      /** a bilinear sample of the mipmap level nearest to the footprint */
+      BILINEAR,
+      /** bilinear samples of the two mipmap levels that bracket the footprint, blended together */
+      TRILINEAR
+   }
+
+   private final int[][]    levels;
+   private final int[]      widths;
+   private final int[]      heights;
+   private final int[]      strideShifts;
+   private final Addressing addressing;
+
+   public Texture(BufferedImage image) {
+      this(image, Addressing.CLAMP);
+   }
+
+   public Texture(BufferedImage image, Addressing addressing) {
+      this.addressing = addressing;
+      int levelCount = 1;
+      for (int size = Math.max(image.getWidth(), image.getHeight()); size > 1; size = (size + 1) / 2) {
+         levelCount++;
+      }
+      levels       = new int[levelCount][];
+      widths       = new int[levelCount];
+      heights      = new int[levelCount];
+      strideShifts = new int[levelCount];
+
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int[] rgbs = image.getRGB(0, 0, width, height, null, 0, width);
+      setLevel(0, width, height);
+      for (int y = 0; y < height; y++) {
+         for (int x = 0; x < width; x++) {
+            levels[0][(y << strideShifts[0]) + x] = rgbs[(y * width) + x] & 0x00ffffff;
+         }
+      }
+      for (int level = 1; level < levelCount; level++) {
+         halve(level);
+      }
+   }
+
+   private void setLevel(int level, int width, int height) {
+      int strideShift = 0;
+      while ((1 << strideShift) < width) {
+         strideShift++;
+      }
+      widths[level] = width;
+      heights[level] = height;
+      strideShifts[level] = strideShift;
+      levels[level] = new int[height << strideShift];
+   }
+
+   /* Builds a level by averaging each 2x2 block of texels of the level above it. */
+   private void halve(int level) {
+      int[] source = levels[level - 1];
+      int sourceShift = strideShifts[level - 1];
+      int sourceWidth = widths[level - 1];
+      int sourceHeight = heights[level - 1];
+      setLevel(level, Math.max(1, (sourceWidth + 1) / 2), Math.max(1, (sourceHeight + 1) / 2));
+      int[] dest = levels[level];
+      int destShift = strideShifts[level];
+      for (int y = 0; y < heights[level]; y++) {
+         int row0 = (y * 2) << sourceShift;
+         int row1 = Math.min((y * 2) + 1, sourceHeight - 1) << sourceShift;
+         for (int x = 0; x < widths[level]; x++) {
+            int x0 = x * 2;
+            int x1 = Math.min(x0 + 1, sourceWidth - 1);
+            dest[(y << destShift) + x] = average(source[row0 + x0], source[row0 + x1],
+                                                 source[row1 + x0], source[row1 + x1]);
+         }
+      }
+   }
+
+   private static int average(int rgb0, int rgb1, int rgb2, int rgb3) {
+      int red   = (((rgb0 >> 16) & 0xFF) + ((rgb1 >> 16) & 0xFF) + ((rgb2 >> 16) & 0xFF) + ((rgb3 >> 16) & 0xFF) + 2) / 4;
+      int green = (((rgb0 >>  8) & 0xFF) + ((rgb1 >>  8) & 0xFF) + ((rgb2 >>  8) & 0xFF) + ((rgb3 >>  8) & 0xFF) + 2) / 4;
+      int blue  = (( rgb0        & 0xFF) + ( rgb1        & 0xFF) + ( rgb2        & 0xFF) + ( rgb3        & 0xFF) + 2) / 4;
+      return (red << 16) | (green << 8) | blue;
+   }
+
+   public int getWidth() {
+      return widths[0];
+   }
+
+   public int getHeight() {
+      return heights[0];
+   }
+
+   public int getLevelCount() {
+      return levels.length;
+   }
+
+   public int getLevelWidth(int level) {
+      return widths[level];
+   }
+
+   public int getLevelHeight(int level) {
+      return heights[level];
+   }
+
+   public Addressing getAddressing() {
+      return addressing;
+   }
+
+   /**
+    * @return the RGB value of the texel at (x,y) in the given mipmap level, after clamping or wrapping (x,y).
+    */
+   public int getTexel(int level, int x, int y) {
+      x = address(x, widths[level]);
+      y = address(y, heights[level]);
+      return levels[level][(y << strideShifts[level]) + x];
+   }
+
+   private int address(int coordinate, int size) {
+      if ((coordinate >= 0) && (coordinate < size)) {
+         return coordinate;
+      }
+      if (addressing == Addressing.WRAP) {
+         return Math.floorMod(coordinate, size);
+      }
+      return (coordinate < 0) ? 0 : size - 1;
+   }
+
+   /**
+    * Samples the texture at the texture coordinate (u,v), for a pixel that covers footprint texels.
+    * Footprints of one texel or less read the nearest texel of the full sized texture.
+    * Larger footprints blend bilinear samples of the two levels that bracket the footprint (trilinear filtering).
+    *
+    * @return the RGB color of the texture at (u,v)
+    */
+   public int sample(float u, float v, float footprint) {
+      return sample(u, v, footprint, Filtering.TRILINEAR);
+   }
+
+   /**
+    * Samples the texture at the texture coordinate (u,v), for a pixel that covers footprint texels, with the given
+    * filtering. The cheaper filterings read fewer texels, at the cost of blockier or more abruptly changing results.
+    */
+   public int sample(float u, float v, float footprint, Filtering filtering) {
+      if (footprint <= 1.0f) {
+         return getTexel(0, Math.round(u * widths[0]), Math.round(v * heights[0]));
+      }
+      float lod = (float) (Math.log(footprint) / LOG_2);
+      if (filtering != Filtering.TRILINEAR) {
+         int level = Math.min(Math.round(lod), levels.length - 1);
+         if (filtering == Filtering.NEAREST) {
+            return getTexel(level, (int) Math.floor(u * widths[level]), (int) Math.floor(v * heights[level]));
+         }
+         return sampleBilinear(level, u, v);
+      }
+      int lowerLevel = Math.min((int) lod, levels.length - 1);
+      int upperLevel = Math.min(lowerLevel + 1, levels.length - 1);
+      float fraction = Math.min(lod - lowerLevel, 1f);
+      int lower = sampleBilinear(lowerLevel, u, v);
+      if ((upperLevel == lowerLevel) || (fraction == 0)) {
+         return lower;
+      }
+      return lerp(lower, sampleBilinear(upperLevel, u, v), fraction);
+   }
+
+   private static final double LOG_2 = Math.log(2);
+
+   private int sampleBilinear(int level, float u, float v) {
+      // texel centers are at half-texel offsets
+      float x = (u * widths[level]) - 0.5f;
+      float y = (v * heights[level]) - 0.5f;
+      int x0 = (int) Math.floor(x);
+      int y0 = (int) Math.floor(y);
+      float fx = x - x0;
+      float fy = y - y0;
+      int top    = lerp(getTexel(level, x0, y0),     getTexel(level, x0 + 1, y0),     fx);
+      int bottom = lerp(getTexel(level, x0, y0 + 1), getTexel(level, x0 + 1, y0 + 1), fx);
+      return lerp(top, bottom, fy);
+   }
+
+   static int lerp(int rgb0, int rgb1, float fraction) {
+      int red0   = (rgb0 >> 16) & 0xFF, red1   = (rgb1 >> 16) & 0xFF;
+      int green0 = (rgb0 >>  8) & 0xFF, green1 = (rgb1 >>  8) & 0xFF;
+      int blue0  =  rgb0        & 0xFF, blue1  =  rgb1        & 0xFF;
+      int red   = red0   + Math.round((red1   - red0)   * fraction);
+      int green = green0 + Math.round((green1 - green0) * fraction);
+      int blue  = blue0  + Math.round((blue1  - blue0)  * fraction);
+      return (red << 16) | (green << 8) | blue;
+   }
+}
@@ -9,8 +9,6 @@ import java.nio.FloatBuffer;
  *
  */
 public class Tuple3 implements Cloneable, Comparable<Tuple3> {
-   static int NEXT_ID = 0;
-   public final int      objId = NEXT_ID++;
 	/** The x element in this tuple */
 	protected final float x;
 	/** The y element in this tuple */
@@ -9,8 +9,6 @@ import java.nio.FloatBuffer;
  *
  */
 public class Tuple4 {
-   static int NEXT_ID = 0;
-   public int      objId = NEXT_ID++;
 	/** The x element in this tuple */
 	protected float x;
 	/** The y element in this tuple */